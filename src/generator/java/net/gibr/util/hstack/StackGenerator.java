@@ -0,0 +1,191 @@
+package net.gibr.util.hstack;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.StringJoiner;
+import java.util.function.IntFunction;
+
+/**
+ * Writes the source of the flat {@code Stack1} to {@code StackN} classes. Each one holds all of its values in fields of a single object and converts to and from the equivalent chain of
+ * {@code HStack.Result}s. Run by the {@code generateStacks} task before the main source set is compiled.
+ * <p>
+ * Usage: {@code StackGenerator <output source directory> <largest arity>}
+ */
+public final class StackGenerator {
+    private static final String PACKAGE = "net.gibr.util.hstack";
+
+    private final int max;
+
+    private StackGenerator(int max) {
+        this.max = max;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Paths.get(args[0], PACKAGE.split("\\."));
+        int max = Integer.parseInt(args[1]);
+        Files.createDirectories(dir);
+        StackGenerator generator = new StackGenerator(max);
+        for (int n = 1; n <= max; n++) {
+            Files.write(dir.resolve("Stack" + n + ".java"), generator.generate(n).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /** joins {@code f(from)} to {@code f(to)} inclusive */
+    private static String join(int from, int to, String separator, IntFunction<String> f) {
+        StringJoiner joiner = new StringJoiner(separator);
+        for (int i = from; i <= to; i++) {
+            joiner.add(f.apply(i));
+        }
+        return joiner.toString();
+    }
+
+    /** the type parameters {@code Tfrom} to {@code Tto} */
+    private static String types(int from, int to) {
+        return join(from, to, ", ", i -> "T" + i);
+    }
+
+    /** the fields {@code vfrom} to {@code vto} */
+    private static String values(int from, int to) {
+        return join(from, to, ", ", i -> "v" + i);
+    }
+
+    /** the linked stack type with {@code head} on top of {@code Tfrom} to {@code Tto} */
+    private static String linked(String head, int from, int to) {
+        StringBuilder type = new StringBuilder();
+        int depth = 0;
+        if (head != null) {
+            type.append("Result<").append(head).append(", ");
+            depth++;
+        }
+        for (int i = from; i <= to; i++) {
+            type.append("Result<T").append(i).append(", ");
+            depth++;
+        }
+        type.append("Bottom");
+        for (int i = 0; i < depth; i++) {
+            type.append('>');
+        }
+        return type.toString();
+    }
+
+    /** the flat stack type with {@code head} on top of {@code Tfrom} to {@code Tto} or the linked type if it would be too deep */
+    private String flat(String head, int from, int to) {
+        int size = to - from + 1 + (head == null ? 0 : 1);
+        if (size == 0)
+            return "Bottom";
+        if (size > max)
+            return linked(head, from, to);
+        return "Stack" + size + "<" + (head == null ? "" : head + (from <= to ? ", " : "")) + types(from, to) + ">";
+    }
+
+    /** creates the flat stack or for one that would be too deep the linked stack */
+    private String create(String head, int from, int to) {
+        int size = to - from + 1 + (head == null ? 0 : 1);
+        if (size == 0)
+            return "HStack.create()";
+        if (size > max)
+            return "HStack.create()" + join(from, to, "", i -> ".push(v" + (to - i + from) + ")") + (head == null ? "" : ".push(" + head + ")");
+        return "new Stack" + size + "<>(" + (head == null ? "" : head + (from <= to ? ", " : "")) + values(from, to) + ")";
+    }
+
+    String generate(int n) {
+        String self = "Stack" + n + "<" + types(1, n) + ">";
+        StringBuilder src = new StringBuilder();
+        src.append("package ").append(PACKAGE).append(";\n\n");
+        src.append("import java.util.Objects;\n");
+        if (n >= 2)
+            src.append("import java.util.function.BiFunction;\n");
+        src.append("import java.util.function.Function;\n\n");
+        src.append("import net.gibr.util.hstack.HStack.Bottom;\n");
+        src.append("import net.gibr.util.hstack.HStack.Result;\n\n");
+        src.append("/**\n");
+        src.append(" * A stack of exactly ").append(n).append(n == 1 ? " value" : " values").append(" held in the fields of a single object instead of a chain of {@link Result}s. Generated by {@code StackGenerator}.\n");
+        src.append(" */\n");
+        src.append("public final class ").append(self).append(" {\n");
+        for (int i = 1; i <= n; i++) {
+            src.append("    private final T").append(i).append(" v").append(i).append(";\n");
+        }
+        src.append("\n    Stack").append(n).append("(").append(join(1, n, ", ", i -> "T" + i + " v" + i)).append(") {\n");
+        for (int i = 1; i <= n; i++) {
+            src.append("        this.v").append(i).append(" = v").append(i).append(";\n");
+        }
+        src.append("    }\n\n");
+
+        src.append("    /**\n     * Creates the stack with the first value on top.\n     */\n");
+        src.append("    public static <").append(types(1, n)).append("> ").append(self).append(" of(").append(join(1, n, ", ", i -> "T" + i + " v" + i)).append(") {\n");
+        src.append("        return new Stack").append(n).append("<>(").append(values(1, n)).append(");\n");
+        src.append("    }\n\n");
+
+        src.append("    /**\n     * Copies a linked stack into a single object.\n     */\n");
+        src.append("    @SuppressWarnings(\"unchecked\")\n");
+        src.append("    public static <").append(types(1, n)).append("> ").append(self).append(" from(").append(linked(null, 1, n)).append(" stack) {\n");
+        src.append("        HStack<?> node = stack;\n");
+        for (int i = 1; i <= n; i++) {
+            src.append("        T").append(i).append(" v").append(i).append(" = (T").append(i).append(") node.top();\n");
+            if (i < n)
+                src.append("        node = node.rest();\n");
+        }
+        src.append("        return new Stack").append(n).append("<>(").append(values(1, n)).append(");\n");
+        src.append("    }\n\n");
+
+        src.append("    /**\n     * Converts back to the linked form of the stack.\n     */\n");
+        src.append("    public ").append(linked(null, 1, n)).append(" toHStack() {\n");
+        src.append("        return HStack.create()").append(join(1, n, "", i -> ".push(v" + (n + 1 - i) + ")")).append(";\n");
+        src.append("    }\n\n");
+
+        src.append("    /**\n     * Access to the top value in the stack.\n     */\n");
+        src.append("    public T1 peek() {\n        return v1;\n    }\n\n");
+
+        src.append("    /**\n     * Discards the top value of the stack.\n     */\n");
+        src.append("    public ").append(flat(null, 2, n)).append(" pop() {\n");
+        src.append("        return ").append(create(null, 2, n)).append(";\n    }\n\n");
+
+        src.append("    /**\n     * Push a new value onto the stack.\n     */\n");
+        src.append("    public <S> ").append(flat("S", 1, n)).append(" push(S value) {\n");
+        src.append("        return ").append(create("value", 1, n)).append(";\n    }\n\n");
+
+        src.append("    /**\n     * Apply a mapping function to the top value of the stack.\n     */\n");
+        src.append("    public <R> ").append(flat("R", 2, n)).append(" apply(Function<T1, R> f) {\n");
+        src.append("        return ").append(create("f.apply(v1)", 2, n)).append(";\n    }\n\n");
+
+        src.append("    /**\n     * Duplicates the <b>reference</b> to the top value of the stack.\n     */\n");
+        src.append("    public ").append(flat("T1", 1, n)).append(" dup() {\n");
+        src.append("        return ").append(create("v1", 1, n)).append(";\n    }\n\n");
+
+        if (n >= 2) {
+            String swapped = "Stack" + n + "<T2, T1" + (n > 2 ? ", " + types(3, n) : "") + ">";
+            src.append("    /**\n     * Swaps the top two values of the stack.\n     */\n");
+            src.append("    public ").append(swapped).append(" swap() {\n");
+            src.append("        return new Stack").append(n).append("<>(v2, v1").append(n > 2 ? ", " + values(3, n) : "").append(");\n    }\n\n");
+
+            src.append("    /**\n     * Applies a function to fold the top value into the second value of the stack.\n     */\n");
+            src.append("    public <R> ").append(flat("R", 3, n)).append(" fold(BiFunction<T1, T2, R> f) {\n");
+            src.append("        return ").append(create("f.apply(v1, v2)", 3, n)).append(";\n    }\n\n");
+        }
+
+        src.append("    public int size() {\n        return ").append(n).append(";\n    }\n\n");
+
+        src.append("    @Override\n    public boolean equals(Object obj) {\n");
+        src.append("        if (this == obj)\n            return true;\n");
+        src.append("        if (!(obj instanceof Stack").append(n).append("))\n            return false;\n");
+        src.append("        Stack").append(n).append("<?").append(n > 1 ? join(2, n, "", i -> ", ?") : "").append("> that = (Stack").append(n).append("<?")
+                .append(n > 1 ? join(2, n, "", i -> ", ?") : "").append(">) obj;\n");
+        src.append("        return ").append(join(1, n, "\n                && ", i -> "Objects.equals(v" + i + ", that.v" + i + ")")).append(";\n    }\n\n");
+
+        src.append("    /**\n     * The same hash as the linked form of the stack.\n     */\n");
+        src.append("    @Override\n    public int hashCode() {\n");
+        src.append("        int hash = HStack.create().hashCode();\n");
+        for (int i = n; i >= 1; i--) {
+            src.append("        hash = hash * 31 + Objects.hashCode(v").append(i).append(");\n");
+        }
+        src.append("        return hash;\n    }\n\n");
+
+        src.append("    @Override\n    public String toString() {\n");
+        src.append("        return \"[\" + ").append(join(1, n, " + \", \" + ", i -> "v" + i)).append(" + \"]\";\n    }\n");
+        src.append("}\n");
+        return src.toString();
+    }
+}
@@ -0,0 +1,78 @@
+package net.gibr.util.hstack;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import net.gibr.util.hstack.HStack.Result;
+
+/**
+ * Compares {@link HStack#applyEach(HStack, Function, java.util.concurrent.Executor)} against mapping the values one after another when each one waits about a millisecond, like a remote call.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class ApplyEachBenchmark {
+    private static final Function<Object, Object> CALL = v -> {
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        return v;
+    };
+
+    @Param({ "1", "4", "16", "64" })
+    public int depth;
+
+    private HStack stack;
+    private ExecutorService executor;
+
+    @Setup
+    public void setup() {
+        HStack s = HStack.create();
+        for (int i = 0; i < depth; i++) {
+            s = HStack.push(s, Integer.valueOf(i));
+        }
+        stack = s;
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public Object applyEach() throws InterruptedException, ExecutionException {
+        return HStack.applyEach(stack, CALL, executor);
+    }
+
+    @Benchmark
+    public Object sequential() {
+        Object[] values = HStack.toArray(stack);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = CALL.apply(values[i]);
+        }
+        return HStack.fromArray(values, 0, values.length);
+    }
+
+    /** the typed way to map each value one after another, an apply and an applyRest for every level of the stack */
+    @Benchmark
+    public Object applyRestChain() {
+        return applyRestChain(stack);
+    }
+
+    private static HStack applyRestChain(HStack s) {
+        if (s.size() == 0)
+            return s;
+        return ((Result) s).apply(CALL).applyRest(rest -> applyRestChain((HStack) rest));
+    }
+}
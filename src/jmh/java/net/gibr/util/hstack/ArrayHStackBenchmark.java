@@ -0,0 +1,68 @@
+package net.gibr.util.hstack;
+
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares the array backed stack with the linked one for the operations it is meant to be better at. Run together with {@link HStackBenchmark} to compare against the linked form.
+ */
+@State(Scope.Thread)
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class ArrayHStackBenchmark {
+    private static final Function<? super Object, Integer> HASH = v -> v.hashCode();
+
+    @Param({ "1", "10", "100", "1000", "10000", "100000", "1000000" })
+    public int depth;
+
+    private ArrayHStack stack;
+    private HStack linked;
+
+    @Setup
+    public void setup() {
+        ArrayHStack s = ArrayHStack.create();
+        for (int i = 0; i < depth; i++) {
+            s = s.push(Integer.valueOf(i));
+        }
+        stack = s;
+        linked = s.toHStack();
+    }
+
+    @Benchmark
+    public Object push() {
+        return stack.push("a");
+    }
+
+    @Benchmark
+    public Object getMiddle() {
+        return stack.get(depth / 2);
+    }
+
+    @Benchmark
+    public Object linkedGetMiddle() {
+        HStack s = linked;
+        for (int i = depth / 2; i > 0; i--) {
+            s = s.rest();
+        }
+        return s.top();
+    }
+
+    @Benchmark
+    public Object foldL() {
+        return stack.foldL(0, HASH, (a, b) -> (Integer) a + (Integer) b);
+    }
+
+    @Benchmark
+    public Object fromLinked() {
+        return ArrayHStack.from(linked);
+    }
+
+    @Benchmark
+    public Object toLinked() {
+        return stack.toHStack();
+    }
+}
@@ -0,0 +1,64 @@
+package net.gibr.util.hstack;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures a push followed by a pop on one stack shared by every benchmark thread, through an {@link AtomicHStack} with and without room for elimination, a plain {@link AtomicReference}
+ * that retries until its update succeeds and a lock. Run it with increasing numbers of threads, {@code -PjmhThreads=64}, to see how each of them copes with contention.
+ */
+@State(Scope.Benchmark)
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class AtomicHStackBenchmark {
+    /** values on the stack before the benchmark starts so pops never find it empty */
+    private static final int DEPTH = 16;
+
+    /** the size of the elimination array, one slot leaves little room for pairs of threads to meet */
+    @Param({ "1", "8", "32" })
+    public int slots;
+
+    private AtomicHStack atomic;
+    private AtomicReference<HStack> reference;
+    private HStack locked;
+    private final Object lock = new Object();
+
+    @Setup
+    public void setup() {
+        HStack s = HStack.create();
+        for (int i = 0; i < DEPTH; i++) {
+            s = HStack.push(s, Integer.valueOf(i));
+        }
+        atomic = new AtomicHStack(s, slots);
+        reference = new AtomicReference<>(s);
+        locked = s;
+    }
+
+    @Benchmark
+    public Object atomicHStack() {
+        atomic.push("a");
+        return atomic.pop();
+    }
+
+    @Benchmark
+    public Object atomicReference() {
+        reference.updateAndGet(s -> HStack.push(s, "a"));
+        return reference.getAndUpdate(HStack::rest).top();
+    }
+
+    @Benchmark
+    public Object synchronizedStack() {
+        synchronized (lock) {
+            locked = HStack.push(locked, "a");
+        }
+        synchronized (lock) {
+            Object top = locked.top();
+            locked = locked.rest();
+            return top;
+        }
+    }
+}
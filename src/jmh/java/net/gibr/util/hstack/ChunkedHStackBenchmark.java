@@ -0,0 +1,82 @@
+package net.gibr.util.hstack;
+
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares the chunked stack with the linked one. The {@code gc.alloc.rate.norm} of the build benchmarks divided by the depth is the memory used per element.
+ */
+@State(Scope.Thread)
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class ChunkedHStackBenchmark {
+    private static final Function<? super Object, Integer> HASH = v -> v.hashCode();
+
+    @Param({ "1", "10", "100", "1000", "10000", "100000", "1000000" })
+    public int depth;
+
+    private ChunkedHStack stack;
+    private ChunkedHStack copy;
+    private HStack linked;
+    private HStack linkedCopy;
+
+    @Setup
+    public void setup() {
+        stack = build();
+        copy = build();
+        linked = stack.toHStack();
+        linkedCopy = copy.toHStack();
+    }
+
+    @Benchmark
+    public ChunkedHStack build() {
+        ChunkedHStack s = ChunkedHStack.create();
+        for (int i = 0; i < depth; i++) {
+            s = s.push(Integer.valueOf(i & 127));
+        }
+        return s;
+    }
+
+    @Benchmark
+    public HStack linkedBuild() {
+        HStack s = HStack.create();
+        for (int i = 0; i < depth; i++) {
+            s = HStack.push(s, Integer.valueOf(i & 127));
+        }
+        return s;
+    }
+
+    @Benchmark
+    public Object foldL() {
+        return stack.foldL(0, HASH, (a, b) -> (Integer) a + (Integer) b);
+    }
+
+    @Benchmark
+    public Object linkedFoldL() {
+        return linked.foldL(0, HASH, (a, b) -> (Integer) a + (Integer) b);
+    }
+
+    @Benchmark
+    public boolean equalsCopy() {
+        return stack.equals(copy);
+    }
+
+    @Benchmark
+    public boolean linkedEqualsCopy() {
+        return linked.equals(linkedCopy);
+    }
+
+    @Benchmark
+    public String toStringChunked() {
+        return stack.toString();
+    }
+
+    @Benchmark
+    public String linkedToString() {
+        return linked.toString();
+    }
+}
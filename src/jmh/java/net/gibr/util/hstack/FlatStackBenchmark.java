@@ -0,0 +1,31 @@
+package net.gibr.util.hstack;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares building and rearranging a small stack as a chain of {@link HStack.Result}s against the generated flat classes.
+ */
+@State(Scope.Thread)
+public class FlatStackBenchmark {
+    private Integer a = 1;
+    private Integer b = 2;
+    private Integer c = 3;
+    private Integer d = 4;
+
+    @Benchmark
+    public Object linked() {
+        return HStack.fold(HStack.swap(HStack.create().push(d).push(c).push(b).push(a)), Integer::sum);
+    }
+
+    @Benchmark
+    public Object flat() {
+        return Stack1.of(d).push(c).push(b).push(a).swap().fold(Integer::sum);
+    }
+
+    @Benchmark
+    public Object flatOf() {
+        return Stack4.of(a, b, c, d).swap().fold(Integer::sum);
+    }
+}
@@ -0,0 +1,62 @@
+package net.gibr.util.hstack;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import net.gibr.util.hstack.HStack.Bottom;
+import net.gibr.util.hstack.HStack.Result;
+
+/**
+ * Compares the single allocation stack rearrangements against composing {@link HStack#swap(Result)} and {@link HStack#applyRest(Result, java.util.function.Function)} to get the same result.
+ */
+@State(Scope.Thread)
+public class ForthBenchmark {
+    private Result<Integer, Result<Integer, Result<Integer, Result<Integer, Bottom>>>> stack;
+
+    @Setup
+    public void setup() {
+        stack = HStack.create().push(4).push(3).push(2).push(1);
+    }
+
+    @Benchmark
+    public Object over() {
+        return HStack.over(stack);
+    }
+
+    @Benchmark
+    public Object overComposed() {
+        return HStack.swap(stack).dup().applyRest(HStack::swap);
+    }
+
+    @Benchmark
+    public Object rot() {
+        return HStack.rot(stack);
+    }
+
+    @Benchmark
+    public Object rotComposed() {
+        return HStack.swap(stack.applyRest(HStack::swap));
+    }
+
+    @Benchmark
+    public Object roll3() {
+        return HStack.roll3(stack);
+    }
+
+    @Benchmark
+    public Object roll3Composed() {
+        return HStack.swap(stack.applyRest(rest -> HStack.swap(rest.applyRest(HStack::swap))));
+    }
+
+    @Benchmark
+    public Object swapAt2() {
+        return HStack.swapAt2(stack);
+    }
+
+    @Benchmark
+    public Object swapAt2Composed() {
+        return HStack.swap(stack.applyRest(HStack::swap)).applyRest(HStack::swap);
+    }
+}
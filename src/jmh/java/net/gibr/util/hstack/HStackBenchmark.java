@@ -0,0 +1,230 @@
+package net.gibr.util.hstack;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StringWriter;
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import net.gibr.util.hstack.HStack.Result;
+
+/**
+ * Measures every operation of {@link HStack} against stacks of increasing depth. The top of stack operations should be flat across all the depths while the whole stack operations are
+ * expected to grow linearly.
+ * <p>
+ * The stacks are built with raw types because their static type would have to be spelled out a million levels deep.
+ */
+@State(Scope.Thread)
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class HStackBenchmark {
+    private static final Function<? super Object, Integer> HASH = v -> v.hashCode();
+
+    @Param({ "1", "10", "100", "1000", "10000", "100000", "1000000" })
+    public int depth;
+
+    /** a stack of exactly {@link #depth} elements */
+    private Result stack;
+    /** equal to {@link #stack} but sharing no nodes with it */
+    private Result copy;
+    /** {@link #stack} with one more element so that there are always two values on top */
+    private Result pair;
+    private byte[] serialized;
+
+    @Setup
+    public void setup() throws IOException {
+        stack = build(depth);
+        copy = build(depth);
+        pair = stack.push(Integer.valueOf(depth));
+        serialized = serialize(stack);
+    }
+
+    private static Result build(int depth) {
+        HStack s = HStack.create();
+        for (int i = 0; i < depth; i++) {
+            s = HStack.push(s, Integer.valueOf(i));
+        }
+        return (Result) s;
+    }
+
+    private static byte[] serialize(Object o) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(o);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public Object push() {
+        return stack.push("a");
+    }
+
+    @Benchmark
+    public Object pushBoxed() {
+        return stack.push(Integer.valueOf(depth + 1000));
+    }
+
+    @Benchmark
+    public Object pushInt() {
+        return stack.pushInt(depth + 1000);
+    }
+
+    @Benchmark
+    public Object pop() {
+        return stack.pop();
+    }
+
+    @Benchmark
+    public Object peek() {
+        return stack.peek();
+    }
+
+    @Benchmark
+    public Object apply() {
+        return stack.apply(HASH);
+    }
+
+    @Benchmark
+    public Object applyLazy() {
+        return stack.applyLazy(HASH);
+    }
+
+    /** three applies whose result is popped without being read */
+    @Benchmark
+    public Object applyThenPop() {
+        return stack.apply(HASH).apply(HASH).apply(HASH).pop();
+    }
+
+    @Benchmark
+    public Object applyLazyThenPop() {
+        return stack.applyLazy(HASH).applyLazy(HASH).applyLazy(HASH).pop();
+    }
+
+    @Benchmark
+    public Object applyLazyThenPeek() {
+        return stack.applyLazy(HASH).applyLazy(HASH).applyLazy(HASH).peek();
+    }
+
+    @Benchmark
+    public Object applyRest() {
+        return pair.applyRest(rest -> ((Result) rest).apply(HASH));
+    }
+
+    @Benchmark
+    public Object dup() {
+        return stack.dup();
+    }
+
+    @Benchmark
+    public Object swap() {
+        return HStack.swap(pair);
+    }
+
+    @Benchmark
+    public Object fold() {
+        return HStack.fold(pair, (a, b) -> a);
+    }
+
+    @Benchmark
+    public int size() {
+        return stack.size();
+    }
+
+    @Benchmark
+    public Object foldL() {
+        return stack.foldL(0, HASH, (a, b) -> (Integer) a + (Integer) b);
+    }
+
+    @Benchmark
+    public int indexOfNearTop() {
+        return stack.indexOf(v -> (Integer) v == depth - 3);
+    }
+
+    @Benchmark
+    public boolean anyMatchNone() {
+        return stack.anyMatch(v -> v == null);
+    }
+
+    @Benchmark
+    public long stream() {
+        return ((HStack<?>) stack).stream().mapToLong(v -> v.hashCode()).sum();
+    }
+
+    @Benchmark
+    public long parallelStream() {
+        return ((HStack<?>) stack).stream().parallel().mapToLong(v -> v.hashCode()).sum();
+    }
+
+    @Benchmark
+    public Object foldR() {
+        return stack.foldR(0, HASH, (a, b) -> (Integer) a + (Integer) b);
+    }
+
+    @Benchmark
+    public boolean equalsSame() {
+        return stack.equals(stack);
+    }
+
+    @Benchmark
+    public boolean equalsCopy() {
+        return stack.equals(copy);
+    }
+
+    @Benchmark
+    public boolean equalsForked() {
+        return stack.push("a").equals(stack.push("a"));
+    }
+
+    @Benchmark
+    public Object commonTail() {
+        return HStack.commonTail(pair.push("a"), stack.push("b"));
+    }
+
+    @Benchmark
+    public int hashCodeOf() {
+        return stack.hashCode();
+    }
+
+    /** hash of a new node on top of a stack that already has its hash cached */
+    @Benchmark
+    public int hashCodePushed() {
+        return stack.push("a").hashCode();
+    }
+
+    @Benchmark
+    public String toStringOf() {
+        return stack.toString();
+    }
+
+    @Benchmark
+    public String toStringTruncated() {
+        return stack.toString(10);
+    }
+
+    @Benchmark
+    public Object writeTo() throws IOException {
+        StringWriter writer = new StringWriter(2 + 8 * depth);
+        stack.writeTo(writer);
+        return writer;
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return serialize(stack);
+    }
+
+    @Benchmark
+    public Object deserialize() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return in.readObject();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package net.gibr.util.hstack;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the cost of interning a stack whose base is already canonical and how much it saves when comparing it with another interned stack.
+ */
+@State(Scope.Thread)
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class HStackInternerBenchmark {
+    @Param({ "1", "10", "100", "1000", "10000" })
+    public int depth;
+
+    private HStackInterner interner;
+    /** a canonical stack */
+    private HStack base;
+    /** a stack equal to {@link #base} sharing no nodes with it */
+    private HStack copy;
+    private HStack internedCopy;
+
+    @Setup
+    public void setup() {
+        interner = new HStackInterner();
+        base = interner.intern(build(depth));
+        copy = build(depth);
+        internedCopy = interner.intern(build(depth));
+    }
+
+    private static HStack build(int depth) {
+        HStack s = HStack.create();
+        for (int i = 0; i < depth; i++) {
+            s = HStack.push(s, Integer.valueOf(i));
+        }
+        return s;
+    }
+
+    @Benchmark
+    public Object internPushed() {
+        return interner.intern(HStack.push(base, "a"));
+    }
+
+    @Benchmark
+    public Object internCopy() {
+        return interner.intern(copy);
+    }
+
+    @Benchmark
+    public boolean equalsCopy() {
+        return base.equals(copy);
+    }
+
+    @Benchmark
+    public boolean equalsInterned() {
+        return base.equals(internedCopy);
+    }
+}
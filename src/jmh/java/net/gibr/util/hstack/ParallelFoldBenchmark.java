@@ -0,0 +1,62 @@
+package net.gibr.util.hstack;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures how {@link HStack#parallelFold(Function, java.util.function.BinaryOperator, Object, ForkJoinPool, int)} scales with the size of the pool against a sequential
+ * {@link HStack#foldL(Object, Function, java.util.function.BiFunction)} when the map function does some work for each value.
+ */
+@State(Scope.Benchmark)
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class ParallelFoldBenchmark {
+    private static final Function<? super Object, Long> WORK = v -> {
+        Blackhole.consumeCPU(100);
+        return Long.valueOf((Integer) v);
+    };
+
+    @Param({ "1000", "100000", "1000000" })
+    public int depth;
+
+    @Param({ "1", "2", "4", "8" })
+    public int threads;
+
+    @Param({ "256", "4096" })
+    public int cutoff;
+
+    private HStack stack;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setup() {
+        HStack s = HStack.create();
+        for (int i = 0; i < depth; i++) {
+            s = HStack.push(s, Integer.valueOf(i));
+        }
+        stack = s;
+        pool = new ForkJoinPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public Object parallelFold() {
+        return stack.parallelFold(WORK, (a, b) -> (Long) a + (Long) b, 0L, pool, cutoff);
+    }
+
+    @Benchmark
+    public Object foldL() {
+        return stack.foldL(0L, WORK, (a, b) -> (Long) a + (Long) b);
+    }
+}
@@ -0,0 +1,72 @@
+package net.gibr.util.hstack;
+
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import net.gibr.util.hstack.HStack.Bottom;
+import net.gibr.util.hstack.HStack.Result;
+
+/**
+ * Compares running a sequence of operations directly on a stack with running the same sequence recorded in a {@link Pipeline}, both with the class generated for each program and, in a fork
+ * with generation turned off, through the call sites shared by every program.
+ * <p>
+ * The {@code mixed} benchmarks take turns running eight pipelines with different functions, the case where shared call sites see too many functions to inline any of them.
+ */
+@State(Scope.Thread)
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class PipelineBenchmark {
+    private static final String SHARED = "-D" + PipelineCompiler.GENERATE_PROPERTY + "=false";
+
+    private Result<Integer, Result<Integer, Bottom>> stack;
+    private Pipeline<Result<Integer, Result<Integer, Bottom>>, Result<Integer, Result<Integer, Bottom>>> pipeline;
+    private final Pipeline[] pipelines = new Pipeline[8];
+    private int next;
+
+    @Setup
+    public void setup() {
+        stack = HStack.create().push(2).push(1);
+        pipeline = Pipeline.<Result<Integer, Result<Integer, Bottom>>> start().then(p -> Pipeline.apply(p, x -> x + 1)).then(p -> Pipeline.apply(p, x -> x * 2)).then(Pipeline::swap)
+                .then(Pipeline::dup).then(p -> Pipeline.fold(p, Integer::sum)).then(Pipeline::swap).push(3).then(p -> Pipeline.fold(p, Integer::sum));
+        for (int i = 0; i < pipelines.length; i++) {
+            int k = i;
+            Pipeline p = Pipeline.start();
+            for (int j = 0; j < 3; j++) {
+                int step = k + j;
+                p = Pipeline.swap(Pipeline.apply(p, (Function) x -> (Integer) x + step));
+            }
+            pipelines[i] = p;
+        }
+    }
+
+    @Benchmark
+    public Object direct() {
+        return HStack.fold(HStack.swap(HStack.fold(HStack.swap(stack.apply(x -> x + 1).apply(x -> x * 2)).dup(), Integer::sum)).push(3), Integer::sum);
+    }
+
+    @Benchmark
+    public Object pipeline() {
+        return pipeline.apply(stack);
+    }
+
+    @Benchmark
+    @Fork(jvmArgsAppend = SHARED)
+    public Object pipelineShared() {
+        return pipeline.apply(stack);
+    }
+
+    @Benchmark
+    public Object mixed() {
+        return pipelines[next++ & 7].apply(stack);
+    }
+
+    @Benchmark
+    @Fork(jvmArgsAppend = SHARED)
+    public Object mixedShared() {
+        return pipelines[next++ & 7].apply(stack);
+    }
+}
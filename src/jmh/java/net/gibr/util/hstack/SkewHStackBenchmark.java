@@ -0,0 +1,59 @@
+package net.gibr.util.hstack;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares reading a value a few levels down and in the middle of the skew-binary list against walking the linked stack.
+ */
+@State(Scope.Thread)
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class SkewHStackBenchmark {
+    @Param({ "1", "10", "100", "1000", "10000", "100000", "1000000" })
+    public int depth;
+
+    private SkewHStack stack;
+    private HStack linked;
+
+    @Setup
+    public void setup() {
+        SkewHStack s = SkewHStack.create();
+        for (int i = 0; i < depth; i++) {
+            s = s.push(Integer.valueOf(i));
+        }
+        stack = s;
+        linked = s.toHStack();
+    }
+
+    @Benchmark
+    public Object push() {
+        return stack.push("a");
+    }
+
+    @Benchmark
+    public Object pop() {
+        return SkewHStack.pop(stack);
+    }
+
+    @Benchmark
+    public Object peekAtMiddle() {
+        return stack.peekAt(depth / 2);
+    }
+
+    @Benchmark
+    public Object linkedPeekAtMiddle() {
+        HStack s = linked;
+        for (int i = depth / 2; i > 0; i--) {
+            s = s.rest();
+        }
+        return s.top();
+    }
+
+    @Benchmark
+    public Object applyAtMiddle() {
+        return stack.applyAt(depth / 2, v -> v);
+    }
+}
@@ -0,0 +1,62 @@
+package net.gibr.util.hstack;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.gibr.util.hstack.HStack.Bottom;
+import net.gibr.util.hstack.HStack.Result;
+
+/**
+ * Measures the throughput of a {@link StackProcessor} pushing stacks through a small pipeline with some work per stack, for different amounts of parallelism and batch sizes.
+ */
+@State(Scope.Benchmark)
+public class StackProcessorBenchmark {
+    private static final int STACKS = 10_000;
+
+    @Param({ "1", "2", "4", "8" })
+    public int parallelism;
+
+    @Param({ "1", "64" })
+    public int batchSize;
+
+    private ExecutorService executor;
+    private Pipeline<Result<Integer, Bottom>, Result<Integer, Bottom>> pipeline;
+    private final LongAdder sink = new LongAdder();
+
+    @Setup
+    public void setup() {
+        executor = Executors.newFixedThreadPool(parallelism);
+        pipeline = Pipeline.<Result<Integer, Bottom>> start().then(p -> Pipeline.apply(p, i -> {
+            Blackhole.consumeCPU(200);
+            return i + 1;
+        }));
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STACKS)
+    public long process() throws InterruptedException, ExecutionException {
+        try (StackProcessor<Result<Integer, Bottom>, Result<Integer, Bottom>> processor = new StackProcessor<>(pipeline, s -> sink.add(s.peek()), executor, parallelism, batchSize,
+                1024)) {
+            for (int i = 0; i < STACKS; i++) {
+                processor.submit(HStack.create().push(i));
+            }
+        }
+        return sink.sum();
+    }
+}
@@ -0,0 +1,76 @@
+package net.gibr.util.hstack;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares reading and replacing a value in the middle of the trie against walking and path copying the linked stack.
+ */
+@State(Scope.Thread)
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class TrieHStackBenchmark {
+    @Param({ "1", "10", "100", "1000", "10000", "100000", "1000000" })
+    public int depth;
+
+    private TrieHStack stack;
+    private HStack linked;
+    private Object[] above;
+
+    @Setup
+    public void setup() {
+        TrieHStack s = TrieHStack.create();
+        for (int i = 0; i < depth; i++) {
+            s = s.push(Integer.valueOf(i));
+        }
+        stack = s;
+        linked = s.toHStack();
+        above = new Object[depth / 2];
+    }
+
+    @Benchmark
+    public Object push() {
+        return stack.push("a");
+    }
+
+    @Benchmark
+    public Object pop() {
+        return TrieHStack.pop(stack);
+    }
+
+    @Benchmark
+    public Object getMiddle() {
+        return stack.get(depth / 2);
+    }
+
+    @Benchmark
+    public Object setMiddle() {
+        return stack.set(depth / 2, "a");
+    }
+
+    @Benchmark
+    public Object linkedSetMiddle() {
+        HStack s = linked;
+        for (int i = 0; i < above.length; i++) {
+            above[i] = s.top();
+            s = s.rest();
+        }
+        s = HStack.push(s.rest(), "a");
+        for (int i = above.length - 1; i >= 0; i--) {
+            s = HStack.push(s, above[i]);
+        }
+        return s;
+    }
+
+    @Benchmark
+    public Object fromLinked() {
+        return TrieHStack.from(linked);
+    }
+
+    @Benchmark
+    public Object toLinked() {
+        return stack.toHStack();
+    }
+}
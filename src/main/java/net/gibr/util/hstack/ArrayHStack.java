@@ -0,0 +1,302 @@
+package net.gibr.util.hstack;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import net.gibr.util.hstack.HStack.Bottom;
+import net.gibr.util.hstack.HStack.Result;
+
+/**
+ * An immutable stack that keeps its values in a flat array instead of a chain of {@link Result}s. It has the same type as the linked stack it can be converted to with {@link #toHStack()} but in
+ * exchange for one less object per value it can read any value with {@link #get(int)} in constant time and folds walk the array instead of chasing pointers.
+ * <p>
+ * The top value is held in a field so {@link #apply(ArrayHStack, Function)}, {@link #fold(ArrayHStack, BiFunction)} and {@link #pop(ArrayHStack)} never touch the array. Versions of the stack share
+ * the array and a {@link #push(Object)} writes into the free space after the last value if no other version has claimed that slot yet, so pushing on the newest version is amortized constant time.
+ * Pushing on an older version or {@link #swap(ArrayHStack)} copies the values below the top into a new array.
+ * <p>
+ * Only stacks of boxed values are supported, the unboxed nodes must be {@code boxed()} before they can be converted.
+ *
+ * @param <X>
+ *            the type of the equivalent linked stack.
+ */
+public final class ArrayHStack<X extends HStack<X>> {
+    private static final int MIN_CAPACITY = 8;
+
+    /**
+     * The array shared by all the versions of a stack and the count of the slots that have been claimed by one of them.
+     */
+    private static final class Backing {
+        private static final AtomicIntegerFieldUpdater<Backing> CLAIMED = AtomicIntegerFieldUpdater.newUpdater(Backing.class, "claimed");
+
+        private final Object[] values;
+        private volatile int claimed;
+
+        Backing(Object[] values, int claimed) {
+            this.values = values;
+            this.claimed = claimed;
+        }
+
+        boolean claim(int index) {
+            return index < values.length && claimed == index && CLAIMED.compareAndSet(this, index, index + 1);
+        }
+    }
+
+    private static final ArrayHStack<Bottom> EMPTY = new ArrayHStack<>(new Backing(new Object[0], 0), 0, null);
+
+    /** values below the top with the bottom value at index zero */
+    private final Backing backing;
+    private final int size;
+    private final Object top;
+
+    private ArrayHStack(Backing backing, int size, Object top) {
+        this.backing = backing;
+        this.size = size;
+        this.top = top;
+    }
+
+    /**
+     * Start an empty stack.
+     *
+     * @return an empty stack that be used to build on.
+     */
+    public static ArrayHStack<Bottom> create() {
+        return EMPTY;
+    }
+
+    /**
+     * Copies a linked stack into an array.
+     *
+     * @param stack
+     *            a stack of boxed values.
+     * @return an array backed stack with the same values.
+     * @throws IllegalArgumentException
+     *             if the stack has an unboxed value.
+     */
+    public static <X extends HStack<X>> ArrayHStack<X> from(X stack) {
+        if (stack.size() == 0)
+            return new ArrayHStack<>(EMPTY.backing, 0, null);
+        Object[] values = HStack.toArray(stack);
+        int size = values.length;
+        return new ArrayHStack<>(new Backing(values, size - 1), size, values[size - 1]);
+    }
+
+    /**
+     * Converts back to the linked form of the stack.
+     *
+     * @return a chain of {@link Result}s with the same values.
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public X toHStack() {
+        if (size == 0)
+            return (X) HStack.create();
+        HStack rest = HStack.fromArray(backing.values, 0, size - 1);
+        return (X) HStack.push(rest, top);
+    }
+
+    /**
+     * Apply a mapping function to the top value of the stack.
+     *
+     * @param stack
+     *            a stack with of type T on top.
+     * @param f
+     *            a function that maps a of type T to a of type R.
+     * @return a stack with a of type R on top.
+     */
+    @SuppressWarnings("unchecked")
+    public static <R, T, U extends HStack<U>> ArrayHStack<Result<R, U>> apply(ArrayHStack<Result<T, U>> stack, Function<T, R> f) {
+        return new ArrayHStack<>(stack.backing, stack.size, f.apply((T) stack.top));
+    }
+
+    /**
+     * Duplicates the <b>reference</b> to the top value of the stack.
+     *
+     * @param stack
+     *            a stack with at least one value.
+     * @return a stack where the top two values are the same object.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T, U extends HStack<U>> ArrayHStack<Result<T, Result<T, U>>> dup(ArrayHStack<Result<T, U>> stack) {
+        return stack.push((T) stack.top);
+    }
+
+    /**
+     * Applies a function to fold the top value into the second value of the stack.
+     *
+     * @param stack
+     *            the stack to apply the function to.
+     * @param f
+     *            a function that folds the top two values into a new value.
+     * @return a new stack with the top two values replaced with the result of the function.
+     */
+    @SuppressWarnings("unchecked")
+    public static <R, T, U, V extends HStack<V>> ArrayHStack<Result<R, V>> fold(ArrayHStack<Result<T, Result<U, V>>> stack, BiFunction<T, U, R> f) {
+        return new ArrayHStack<>(stack.backing, stack.size - 1, f.apply((T) stack.top, (U) stack.backing.values[stack.size - 2]));
+    }
+
+    /**
+     * Access to the top value in the stack without affecting the structure of the stack.
+     *
+     * @param stack
+     *            a stack with at least one value
+     * @return the top value of the stack.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T, U extends HStack<U>> T peek(ArrayHStack<Result<T, U>> stack) {
+        return (T) stack.top;
+    }
+
+    /**
+     * Discards the top value of the stack.
+     *
+     * @param stack
+     *            a stack of at least one value.
+     * @return the rest of the stack.
+     */
+    public static <T, U extends HStack<U>> ArrayHStack<U> pop(ArrayHStack<Result<T, U>> stack) {
+        return stack.drop();
+    }
+
+    /**
+     * Swaps the top two values of the stack. Unlike the other operations this has to copy the values below the top into a new array.
+     *
+     * @param stack
+     *            the stack to swap values on
+     * @return a stack with the top two values swapped.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T, U, V extends HStack<V>> ArrayHStack<Result<U, Result<T, V>>> swap(ArrayHStack<Result<T, Result<U, V>>> stack) {
+        ArrayHStack<V> rest = stack.drop().drop();
+        return rest.push((T) stack.top).push((U) stack.backing.values[stack.size - 2]);
+    }
+
+    /**
+     * Push a new value onto the stack.
+     *
+     * @param value
+     *            to be added to top of the stack
+     * @return a new stack with the value on top.
+     */
+    public <T> ArrayHStack<Result<T, X>> push(T value) {
+        if (size == 0)
+            return new ArrayHStack<>(backing, 1, value);
+        int index = size - 1;
+        Backing b = backing;
+        if (b.claim(index)) {
+            b.values[index] = top;
+        } else {
+            Object[] values = new Object[Math.max(MIN_CAPACITY, size * 2)];
+            System.arraycopy(b.values, 0, values, 0, index);
+            values[index] = top;
+            b = new Backing(values, size);
+        }
+        return new ArrayHStack<>(b, size + 1, value);
+    }
+
+    private <U extends HStack<U>> ArrayHStack<U> drop() {
+        if (size == 1)
+            return new ArrayHStack<>(backing, 0, null);
+        return new ArrayHStack<>(backing, size - 1, backing.values[size - 2]);
+    }
+
+    /**
+     * Reads a value from anywhere in the stack in constant time.
+     *
+     * @param n
+     *            how far down the stack the value is, zero being the top.
+     * @return the value n from the top.
+     * @throws IndexOutOfBoundsException
+     *             if n is negative or not less than the size of the stack.
+     */
+    public Object get(int n) {
+        if (n < 0 || n >= size)
+            throw new IndexOutOfBoundsException("index " + n + " of stack of size " + size);
+        return n == 0 ? top : backing.values[size - 1 - n];
+    }
+
+    /**
+     * The number of values in the stack.
+     *
+     * @return zero for an empty stack.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Folds the values of the stack starting from the top.
+     *
+     * @see HStack#foldL(Object, Function, BiFunction)
+     */
+    public <V, R> R foldL(R seed, Function<? super Object, V> map, BiFunction<R, V, R> fold) {
+        if (size == 0)
+            return seed;
+        R acc = fold.apply(seed, map.apply(top));
+        Object[] values = backing.values;
+        for (int i = size - 2; i >= 0; i--) {
+            acc = fold.apply(acc, map.apply(values[i]));
+        }
+        return acc;
+    }
+
+    /**
+     * Folds the values of the stack starting from the bottom.
+     *
+     * @see HStack#foldR(Object, Function, BiFunction)
+     */
+    public <V, R> R foldR(R seed, Function<? super Object, V> map, BiFunction<R, V, R> fold) {
+        if (size == 0)
+            return seed;
+        R acc = seed;
+        Object[] values = backing.values;
+        for (int i = 0; i < size - 1; i++) {
+            acc = fold.apply(acc, map.apply(values[i]));
+        }
+        return fold.apply(acc, map.apply(top));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof ArrayHStack))
+            return false;
+        ArrayHStack<?> that = (ArrayHStack<?>) obj;
+        if (this.size != that.size)
+            return false;
+        if (size == 0)
+            return true;
+        if (!Objects.equals(this.top, that.top))
+            return false;
+        Object[] a = this.backing.values;
+        Object[] b = that.backing.values;
+        for (int i = size - 2; i >= 0; i--) {
+            if (!Objects.equals(a[i], b[i]))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * The same hash as the linked form of the stack.
+     */
+    @Override
+    public int hashCode() {
+        return foldR(HStack.create().hashCode(), Function.identity(), (hash, value) -> hash * 31 + Objects.hashCode(value));
+    }
+
+    /**
+     * The same format as {@link HStack#toString()}.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(2 + 8 * size).append('[');
+        for (int i = 0; i < size; i++) {
+            if (i > 0)
+                builder.append(", ");
+            builder.append(get(i));
+        }
+        return builder.append(']').toString();
+    }
+}
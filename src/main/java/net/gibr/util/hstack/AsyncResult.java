@@ -0,0 +1,202 @@
+package net.gibr.util.hstack;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import net.gibr.util.hstack.HStack.Result;
+
+/**
+ * A stack whose top values are still being computed. Each slot is a {@link CompletableFuture} on top of either another {@code AsyncResult} or a plain {@link HStack} base, so functions applied
+ * to different slots run concurrently instead of one after another, and {@link #await()} turns it back into the plain {@link Result} once every slot has completed.
+ * <p>
+ * Nothing here blocks, a failed slot fails every slot computed from it and the stack it is awaited into.
+ *
+ * @param <T>
+ *            type of the value.
+ * @param <U>
+ *            type of the plain stack the rest of the slots will complete to.
+ */
+public final class AsyncResult<T, U extends HStack<U>> {
+    private final CompletableFuture<T> value;
+    /** another {@code AsyncResult} or the plain {@link HStack} base */
+    private final Object rest;
+    /** the number of slots including this one down to the plain base */
+    private final int slots;
+
+    private AsyncResult(CompletableFuture<T> value, Object rest, int slots) {
+        this.value = value;
+        this.rest = rest;
+        this.slots = slots;
+    }
+
+    /**
+     * Starts an asynchronous stack on top of a plain one.
+     *
+     * @param base
+     *            the stack below the value.
+     * @param value
+     *            the future top value.
+     * @return a stack with one future slot.
+     */
+    public static <T, U extends HStack<U>> AsyncResult<T, U> push(U base, CompletableFuture<T> value) {
+        return new AsyncResult<>(value, base, 1);
+    }
+
+    /**
+     * Lifts the top value of a plain stack into a completed slot.
+     *
+     * @param stack
+     *            a stack with at least one value.
+     * @return a stack with one completed slot on top of the rest of the plain stack.
+     */
+    public static <T, U extends HStack<U>> AsyncResult<T, U> of(Result<T, U> stack) {
+        return push(stack.pop(), CompletableFuture.completedFuture(stack.peek()));
+    }
+
+    /**
+     * Push a new future value onto the stack.
+     *
+     * @param value
+     *            to be added to top of the stack
+     * @return a new stack with the future value on top.
+     */
+    public <S> AsyncResult<S, Result<T, U>> push(CompletableFuture<S> value) {
+        return new AsyncResult<>(value, this, slots + 1);
+    }
+
+    /**
+     * The future top value of the stack.
+     *
+     * @return the future of the top slot.
+     */
+    public CompletableFuture<T> peek() {
+        return value;
+    }
+
+    /**
+     * Apply a mapping function to the top value of the stack on an executor once it has completed.
+     *
+     * @param f
+     *            a function that maps a of type T to a of type R.
+     * @param executor
+     *            runs the function.
+     * @return a stack with a future of type R on top.
+     */
+    public <R> AsyncResult<R, U> applyAsync(Function<T, R> f, Executor executor) {
+        return new AsyncResult<>(value.thenApplyAsync(f, executor), rest, slots);
+    }
+
+    /**
+     * Folds the top value into the second value of the stack once both have completed, in whichever thread completes the last of them.
+     *
+     * @param stack
+     *            the stack to apply the function to.
+     * @param f
+     *            a function that folds the top two values into a new value.
+     * @return a new stack with the top two slots replaced with the future result of the function.
+     */
+    public static <R, T, S, V extends HStack<V>> AsyncResult<R, V> foldAsync(AsyncResult<T, Result<S, V>> stack, BiFunction<T, S, R> f) {
+        AsyncResult<S, V> second = pop(stack);
+        return new AsyncResult<>(stack.value.thenCombine(second.value, f), second.rest, second.slots);
+    }
+
+    /**
+     * Folds the top value into the second value of the stack on an executor once both have completed.
+     *
+     * @param stack
+     *            the stack to apply the function to.
+     * @param f
+     *            a function that folds the top two values into a new value.
+     * @param executor
+     *            runs the function.
+     * @return a new stack with the top two slots replaced with the future result of the function.
+     */
+    public static <R, T, S, V extends HStack<V>> AsyncResult<R, V> foldAsync(AsyncResult<T, Result<S, V>> stack, BiFunction<T, S, R> f, Executor executor) {
+        AsyncResult<S, V> second = pop(stack);
+        return new AsyncResult<>(stack.value.thenCombineAsync(second.value, f, executor), second.rest, second.slots);
+    }
+
+    /**
+     * Discards the top slot of the stack without waiting for it. If the rest is the plain base its top value is lifted into a completed slot.
+     *
+     * @param stack
+     *            a stack with at least two values.
+     * @return the rest of the stack.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T, S, V extends HStack<V>> AsyncResult<S, V> pop(AsyncResult<T, Result<S, V>> stack) {
+        if (stack.rest instanceof AsyncResult)
+            return (AsyncResult<S, V>) stack.rest;
+        return of((Result<S, V>) stack.rest);
+    }
+
+    /**
+     * Swaps the top two slots of the stack without waiting for either.
+     *
+     * @param stack
+     *            the stack to swap values on
+     * @return a stack with the top two slots swapped.
+     */
+    public static <T, S, V extends HStack<V>> AsyncResult<S, Result<T, V>> swap(AsyncResult<T, Result<S, V>> stack) {
+        AsyncResult<S, V> second = pop(stack);
+        return new AsyncResult<>(second.value, new AsyncResult<T, V>(stack.value, second.rest, second.slots), second.slots + 1);
+    }
+
+    /**
+     * The number of values in the stack including the plain base.
+     *
+     * @return at least one.
+     */
+    public int size() {
+        return slots + base().size();
+    }
+
+    private HStack<?> base() {
+        Object s = rest;
+        while (s instanceof AsyncResult) {
+            s = ((AsyncResult<?, ?>) s).rest;
+        }
+        return (HStack<?>) s;
+    }
+
+    /**
+     * Waits for every slot without blocking and rebuilds the plain stack.
+     *
+     * @return a future of the plain stack that fails if any slot fails.
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public CompletableFuture<Result<T, U>> await() {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[slots];
+        Object s = this;
+        for (int i = 0; i < futures.length; i++) {
+            AsyncResult<?, ?> slot = (AsyncResult<?, ?>) s;
+            futures[i] = slot.value;
+            s = slot.rest;
+        }
+        HStack base = (HStack) s;
+        return CompletableFuture.allOf(futures).thenApply(done -> {
+            HStack stack = base;
+            for (int i = futures.length - 1; i >= 0; i--) {
+                stack = HStack.push(stack, futures[i].join());
+            }
+            return (Result<T, U>) stack;
+        });
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder().append('[');
+        Object s = this;
+        while (s instanceof AsyncResult) {
+            CompletableFuture<?> f = ((AsyncResult<?, ?>) s).value;
+            builder.append(f.isDone() && !f.isCompletedExceptionally() ? String.valueOf(f.join()) : "?").append(", ");
+            s = ((AsyncResult<?, ?>) s).rest;
+        }
+        if (((HStack<?>) s).size() == 0)
+            return builder.replace(builder.length() - 2, builder.length(), "]").toString();
+        String base = s.toString();
+        return builder.append(base, 1, base.length()).toString();
+    }
+}
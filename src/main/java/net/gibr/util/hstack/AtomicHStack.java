@@ -0,0 +1,152 @@
+package net.gibr.util.hstack;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.UnaryOperator;
+
+/**
+ * A mutable holder of an immutable stack shared by many threads. Each {@link #push(Object)} and {@link #pop()} is a compare and set of the current stack, a Treiber stack built from
+ * {@link HStack} nodes, so readers never block and see a consistent stack.
+ * <p>
+ * Under contention a push or pop whose compare and set fails tries to meet an opposite operation in an elimination array before trying again: a push leaves its value in a random slot for a
+ * short while and a pop that finds it there takes it, so both complete without touching the shared stack. The push is taken to happen just before the pop.
+ * <p>
+ * The type of the stack changes with every push and pop so the holder isn't typed, use {@link #get()} with the typed statics of {@link HStack} to read it.
+ */
+public final class AtomicHStack {
+    /** how many times a push checks whether its value was taken before withdrawing it */
+    private static final int SPINS = 1 << 6;
+
+    /**
+     * A value waiting in the elimination array for a pop.
+     */
+    private static final class Offer {
+        final Object value;
+
+        Offer(Object value) {
+            this.value = value;
+        }
+    }
+
+    private final AtomicReference<HStack<?>> stack;
+    private final AtomicReferenceArray<Offer> elimination;
+
+    /**
+     * Starts with an empty stack and an elimination array sized for the number of processors.
+     */
+    public AtomicHStack() {
+        this(HStack.create(), Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    /**
+     * @param initial
+     *            the stack to start with.
+     * @param slots
+     *            the size of the elimination array, more slots make it less likely that pairs of threads meet but less likely that they collide with other pairs.
+     * @throws IllegalArgumentException
+     *             if there isn't at least one slot.
+     */
+    public AtomicHStack(HStack<?> initial, int slots) {
+        if (slots <= 0)
+            throw new IllegalArgumentException("slots must be positive: " + slots);
+        this.stack = new AtomicReference<>(initial);
+        this.elimination = new AtomicReferenceArray<>(slots);
+    }
+
+    /**
+     * The current stack.
+     *
+     * @return the stack as of the last push, pop or update.
+     */
+    public HStack<?> get() {
+        return stack.get();
+    }
+
+    /**
+     * The top value of the current stack.
+     *
+     * @return the top value, boxed if it was unboxed.
+     * @throws IllegalStateException
+     *             if the stack is empty.
+     */
+    public Object peek() {
+        return stack.get().top();
+    }
+
+    /**
+     * Push a new value onto the shared stack.
+     *
+     * @param value
+     *            to be added to top of the stack
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public void push(Object value) {
+        while (true) {
+            HStack current = stack.get();
+            if (stack.compareAndSet(current, HStack.push(current, value)))
+                return;
+            if (eliminatePush(value))
+                return;
+        }
+    }
+
+    /**
+     * Removes the top value of the shared stack.
+     *
+     * @return the value that was on top, boxed if it was unboxed.
+     * @throws IllegalStateException
+     *             if the stack is empty.
+     */
+    public Object pop() {
+        while (true) {
+            HStack<?> current = stack.get();
+            if (current.depth == 0)
+                throw new IllegalStateException("bottom of the stack");
+            if (stack.compareAndSet(current, current.rest()))
+                return current.top();
+            Offer offer = eliminatePop();
+            if (offer != null)
+                return offer.value;
+        }
+    }
+
+    /**
+     * Replaces the shared stack with a function of it, retrying if another thread changes it first so the function may be called more than once.
+     *
+     * @param f
+     *            maps the current stack to the new one.
+     * @return the new stack.
+     */
+    public HStack<?> update(UnaryOperator<HStack<?>> f) {
+        return stack.updateAndGet(f);
+    }
+
+    /** leaves the value in a random slot for a pop to take */
+    private boolean eliminatePush(Object value) {
+        int slot = ThreadLocalRandom.current().nextInt(elimination.length());
+        Offer offer = new Offer(value);
+        if (!elimination.compareAndSet(slot, null, offer))
+            return false;
+        for (int i = 0; i < SPINS; i++) {
+            if (elimination.get(slot) != offer)
+                return true;
+        }
+        // taken if it can't be withdrawn
+        return !elimination.compareAndSet(slot, offer, null);
+    }
+
+    /** takes a value waiting in a random slot */
+    private Offer eliminatePop() {
+        int slot = ThreadLocalRandom.current().nextInt(elimination.length());
+        Offer offer = elimination.get(slot);
+        if (offer != null && elimination.compareAndSet(slot, offer, null))
+            return offer;
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return stack.get().toString();
+    }
+}
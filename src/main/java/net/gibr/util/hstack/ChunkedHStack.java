@@ -0,0 +1,332 @@
+package net.gibr.util.hstack;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import net.gibr.util.hstack.HStack.Bottom;
+import net.gibr.util.hstack.HStack.Result;
+
+/**
+ * An immutable stack that stores its values in a linked list of chunks of up to {@value #CHUNK_SIZE} values instead of one {@link Result} per value. It has the same type as the linked stack it
+ * can be converted to with {@link #toHStack()} and the same operations, but folds, equals and toString walk arrays and only follow a pointer every {@value #CHUNK_SIZE} values.
+ * <p>
+ * Only the chunk on top can be partially filled. Versions of the stack share chunks and a {@link #push(Object)} writes into the free space of the top chunk if no other version has claimed that
+ * slot yet, otherwise it copies the values of the top chunk that belong to this version. Either way every operation touches at most two chunks so they are all constant time.
+ * <p>
+ * Only stacks of boxed values are supported, the unboxed nodes must be {@code boxed()} before they can be converted.
+ *
+ * @param <X>
+ *            the type of the equivalent linked stack.
+ */
+public final class ChunkedHStack<X extends HStack<X>> {
+    static final int CHUNK_SIZE = 8;
+
+    /**
+     * Up to {@value #CHUNK_SIZE} values with the deepest first, the count of the slots that have been claimed by one of the versions sharing it and the chunk of values below.
+     */
+    private static final class Chunk {
+        private static final AtomicIntegerFieldUpdater<Chunk> CLAIMED = AtomicIntegerFieldUpdater.newUpdater(Chunk.class, "claimed");
+
+        final Object[] values = new Object[CHUNK_SIZE];
+        final Chunk next;
+        private volatile int claimed;
+
+        Chunk(Chunk next, int claimed) {
+            this.next = next;
+            this.claimed = claimed;
+        }
+
+        boolean claim(int index) {
+            return claimed == index && CLAIMED.compareAndSet(this, index, index + 1);
+        }
+    }
+
+    private static final ChunkedHStack<Bottom> EMPTY = new ChunkedHStack<>(null, 0, 0);
+
+    /** the top chunk, null for an empty stack */
+    private final Chunk chunk;
+    /** how many values of the top chunk belong to this version, only zero for an empty stack */
+    private final int fill;
+    private final int size;
+
+    private ChunkedHStack(Chunk chunk, int fill, int size) {
+        this.chunk = chunk;
+        this.fill = fill;
+        this.size = size;
+    }
+
+    /**
+     * Start an empty stack.
+     *
+     * @return an empty stack that be used to build on.
+     */
+    public static ChunkedHStack<Bottom> create() {
+        return EMPTY;
+    }
+
+    /**
+     * Copies a linked stack into chunks.
+     *
+     * @param stack
+     *            a stack of boxed values.
+     * @return a chunked stack with the same values.
+     * @throws IllegalArgumentException
+     *             if the stack has an unboxed value.
+     */
+    public static <X extends HStack<X>> ChunkedHStack<X> from(X stack) {
+        Object[] values = HStack.toArray(stack);
+        Chunk chunk = null;
+        int fill = 0;
+        for (int i = 0; i < values.length; i += CHUNK_SIZE) {
+            fill = Math.min(CHUNK_SIZE, values.length - i);
+            chunk = new Chunk(chunk, fill);
+            System.arraycopy(values, i, chunk.values, 0, fill);
+        }
+        return new ChunkedHStack<>(chunk, fill, values.length);
+    }
+
+    /**
+     * Converts back to the linked form of the stack.
+     *
+     * @return a chain of {@link Result}s with the same values.
+     */
+    @SuppressWarnings("unchecked")
+    public X toHStack() {
+        return (X) HStack.fromArray(toArray(), 0, size);
+    }
+
+    /** the values with the bottom first */
+    private Object[] toArray() {
+        Object[] values = new Object[size];
+        int end = size;
+        int count = fill;
+        for (Chunk c = chunk; c != null; c = c.next) {
+            end -= count;
+            System.arraycopy(c.values, 0, values, end, count);
+            count = CHUNK_SIZE;
+        }
+        return values;
+    }
+
+    /**
+     * Apply a mapping function to the top value of the stack.
+     *
+     * @param stack
+     *            a stack with of type T on top.
+     * @param f
+     *            a function that maps a of type T to a of type R.
+     * @return a stack with a of type R on top.
+     */
+    public static <R, T, U extends HStack<U>> ChunkedHStack<Result<R, U>> apply(ChunkedHStack<Result<T, U>> stack, Function<T, R> f) {
+        return pop(stack).push(f.apply(peek(stack)));
+    }
+
+    /**
+     * Duplicates the <b>reference</b> to the top value of the stack.
+     *
+     * @param stack
+     *            a stack with at least one value.
+     * @return a stack where the top two values are the same object.
+     */
+    public static <T, U extends HStack<U>> ChunkedHStack<Result<T, Result<T, U>>> dup(ChunkedHStack<Result<T, U>> stack) {
+        return stack.push(peek(stack));
+    }
+
+    /**
+     * Applies a function to fold the top value into the second value of the stack.
+     *
+     * @param stack
+     *            the stack to apply the function to.
+     * @param f
+     *            a function that folds the top two values into a new value.
+     * @return a new stack with the top two values replaced with the result of the function.
+     */
+    public static <R, T, U, V extends HStack<V>> ChunkedHStack<Result<R, V>> fold(ChunkedHStack<Result<T, Result<U, V>>> stack, BiFunction<T, U, R> f) {
+        ChunkedHStack<Result<U, V>> rest = pop(stack);
+        return pop(rest).push(f.apply(peek(stack), peek(rest)));
+    }
+
+    /**
+     * Access to the top value in the stack without affecting the structure of the stack.
+     *
+     * @param stack
+     *            a stack with at least one value
+     * @return the top value of the stack.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T, U extends HStack<U>> T peek(ChunkedHStack<Result<T, U>> stack) {
+        return (T) stack.chunk.values[stack.fill - 1];
+    }
+
+    /**
+     * Discards the top value of the stack.
+     *
+     * @param stack
+     *            a stack of at least one value.
+     * @return the rest of the stack.
+     */
+    public static <T, U extends HStack<U>> ChunkedHStack<U> pop(ChunkedHStack<Result<T, U>> stack) {
+        if (stack.fill > 1)
+            return new ChunkedHStack<>(stack.chunk, stack.fill - 1, stack.size - 1);
+        Chunk next = stack.chunk.next;
+        return new ChunkedHStack<>(next, next == null ? 0 : CHUNK_SIZE, stack.size - 1);
+    }
+
+    /**
+     * Swaps the top two values of the stack.
+     *
+     * @param stack
+     *            the stack to swap values on
+     * @return a stack with the top two values swapped.
+     */
+    public static <T, U, V extends HStack<V>> ChunkedHStack<Result<U, Result<T, V>>> swap(ChunkedHStack<Result<T, Result<U, V>>> stack) {
+        ChunkedHStack<Result<U, V>> rest = pop(stack);
+        return pop(rest).push(peek(stack)).push(peek(rest));
+    }
+
+    /**
+     * Push a new value onto the stack.
+     *
+     * @param value
+     *            to be added to top of the stack
+     * @return a new stack with the value on top.
+     */
+    public <T> ChunkedHStack<Result<T, X>> push(T value) {
+        Chunk c = chunk;
+        if (c == null || fill == CHUNK_SIZE) {
+            c = new Chunk(c, 1);
+        } else if (!c.claim(fill)) {
+            Chunk copy = new Chunk(c.next, fill + 1);
+            System.arraycopy(c.values, 0, copy.values, 0, fill);
+            c = copy;
+        }
+        c.values[fill == CHUNK_SIZE ? 0 : fill] = value;
+        return new ChunkedHStack<>(c, fill == CHUNK_SIZE ? 1 : fill + 1, size + 1);
+    }
+
+    /**
+     * Reads a value from anywhere in the stack, skipping over whole chunks.
+     *
+     * @param n
+     *            how far down the stack the value is, zero being the top.
+     * @return the value n from the top.
+     * @throws IndexOutOfBoundsException
+     *             if n is negative or not less than the size of the stack.
+     */
+    public Object get(int n) {
+        if (n < 0 || n >= size)
+            throw new IndexOutOfBoundsException("index " + n + " of stack of size " + size);
+        if (n < fill)
+            return chunk.values[fill - 1 - n];
+        n -= fill;
+        Chunk c = chunk.next;
+        for (; n >= CHUNK_SIZE; n -= CHUNK_SIZE) {
+            c = c.next;
+        }
+        return c.values[CHUNK_SIZE - 1 - n];
+    }
+
+    /**
+     * The number of values in the stack.
+     *
+     * @return zero for an empty stack.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Folds the values of the stack starting from the top.
+     *
+     * @see HStack#foldL(Object, Function, BiFunction)
+     */
+    public <V, R> R foldL(R seed, Function<? super Object, V> map, BiFunction<R, V, R> fold) {
+        R acc = seed;
+        int count = fill;
+        for (Chunk c = chunk; c != null; c = c.next) {
+            Object[] values = c.values;
+            for (int i = count - 1; i >= 0; i--) {
+                acc = fold.apply(acc, map.apply(values[i]));
+            }
+            count = CHUNK_SIZE;
+        }
+        return acc;
+    }
+
+    /**
+     * Folds the values of the stack starting from the bottom.
+     *
+     * @see HStack#foldR(Object, Function, BiFunction)
+     */
+    public <V, R> R foldR(R seed, Function<? super Object, V> map, BiFunction<R, V, R> fold) {
+        R acc = seed;
+        for (Object value : toArray()) {
+            acc = fold.apply(acc, map.apply(value));
+        }
+        return acc;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof ChunkedHStack))
+            return false;
+        ChunkedHStack<?> that = (ChunkedHStack<?>) obj;
+        if (this.size != that.size)
+            return false;
+        // the chunks line up since only the top chunks can be partially filled
+        if (this.fill != that.fill)
+            return false;
+        int count = fill;
+        for (Chunk a = this.chunk, b = that.chunk; a != null; a = a.next, b = b.next) {
+            if (a == b)
+                return true;
+            for (int i = 0; i < count; i++) {
+                if (!Objects.equals(a.values[i], b.values[i]))
+                    return false;
+            }
+            count = CHUNK_SIZE;
+        }
+        return true;
+    }
+
+    /**
+     * The same hash as the linked form of the stack.
+     */
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        int multiplier = 1;
+        int count = fill;
+        for (Chunk c = chunk; c != null; c = c.next) {
+            for (int i = count - 1; i >= 0; i--) {
+                hash += multiplier * Objects.hashCode(c.values[i]);
+                multiplier *= 31;
+            }
+            count = CHUNK_SIZE;
+        }
+        return hash + multiplier * HStack.create().hashCode();
+    }
+
+    /**
+     * The same format as {@link HStack#toString()}.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(2 + 8 * size).append('[');
+        int count = fill;
+        int written = 0;
+        for (Chunk c = chunk; c != null; c = c.next) {
+            for (int i = count - 1; i >= 0; i--) {
+                if (written++ > 0)
+                    builder.append(", ");
+                builder.append(c.values[i]);
+            }
+            count = CHUNK_SIZE;
+        }
+        return builder.append(']').toString();
+    }
+}
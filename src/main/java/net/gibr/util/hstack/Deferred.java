@@ -0,0 +1,49 @@
+package net.gibr.util.hstack;
+
+import java.util.function.Function;
+
+/**
+ * A value of a {@link HStack.Result} that hasn't been computed yet, a function and the input to call it with. The first call to {@link #get()} computes it under a lock and then drops the
+ * function and its input so they can be collected, after that it is read without locking. Never seen outside the package, reading a value through {@code Result.value()} unwraps it.
+ */
+final class Deferred {
+    /** null once computed, written after {@link #result} so seeing it null means the result is visible */
+    private volatile Function<Object, Object> f;
+    private Object input;
+    private Object result;
+
+    Deferred(Object input, Function<Object, Object> f) {
+        this.input = input;
+        this.f = f;
+    }
+
+    /** the value held in a node, computing it first if it is deferred */
+    static Object value(Object held) {
+        return held instanceof Deferred ? ((Deferred) held).get() : held;
+    }
+
+    Object get() {
+        if (f != null) {
+            synchronized (this) {
+                Function<Object, Object> pending = f;
+                if (pending != null) {
+                    result = pending.apply(input);
+                    input = null;
+                    f = null;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Composes another function onto this one, or starts from the result if it has already been computed. This value is left as it is so it can still be read on its own.
+     */
+    Deferred then(Function<Object, Object> g) {
+        synchronized (this) {
+            if (f != null)
+                return new Deferred(input, f.andThen(g));
+        }
+        return new Deferred(result, g);
+    }
+}
@@ -1,12 +1,31 @@
 package net.gibr.util.hstack;
 
 import java.io.IOException;
+import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.io.Writer;
 import java.util.Objects;
-import java.util.StringJoiner;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
 import java.util.function.Function;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntUnaryOperator;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongUnaryOperator;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * To start a new stack use:
@@ -22,6 +41,9 @@ import java.util.function.Function;
  * </ul>
  * All of the other statics are here just for consistency and are no different then the instance methods on {@link Result} or {@link Bottom}.
  * <p>
+ * Numeric values can be kept unboxed with {@link IntResult}, {@link LongResult} and {@link DoubleResult} which can be mixed freely with {@link Result} in the same stack. An unboxed value is equal
+ * to the same value boxed in a {@link Result}.
+ * <p>
  * 
  * @param <X>
  *            the recursive type of the whole stack
@@ -36,6 +58,7 @@ public abstract class HStack<X extends HStack<X>> implements Serializable {
         private static final long serialVersionUID = -2672954791136534732L;
 
         private Bottom() {
+            super(0);
         }
 
         /**
@@ -57,13 +80,13 @@ public abstract class HStack<X extends HStack<X>> implements Serializable {
         }
 
         @Override
-        public <V, R> R foldL(R seed, Function<? super Object, V> map, BiFunction<R, V, R> fold) {
-            return seed;
+        HStack<?> rest() {
+            return null;
         }
 
         @Override
-        public <V, R> R foldR(R seed, Function<? super Object, V> map, BiFunction<R, V, R> fold) {
-            return seed;
+        Object top() {
+            throw new IllegalStateException("bottom of the stack");
         }
     }
 
@@ -79,13 +102,25 @@ public abstract class HStack<X extends HStack<X>> implements Serializable {
         private static final long serialVersionUID = -2289775929496261940L;
 
         private final U rest;
-        private final T value;
+        /** the value of type T or a {@link Deferred} computing it, only read through {@link #value()} but moved between nodes as is */
+        private final Object value;
 
-        private Result(T value, U rest) {
+        private Result(Object value, U rest) {
+            super(rest.depth + 1);
             this.value = value;
             this.rest = rest;
         }
 
+        private void readObject(ObjectInputStream ois) throws InvalidObjectException {
+            throw new InvalidObjectException("proxy required");
+        }
+
+        /** the value, computing it first if it was applied lazily */
+        @SuppressWarnings("unchecked")
+        T value() {
+            return (T) Deferred.value(value);
+        }
+
         /**
          * Apply a mapping function to the top value of the stack.
          * 
@@ -97,6 +132,17 @@ public abstract class HStack<X extends HStack<X>> implements Serializable {
             return HStack.apply(this, f);
         }
 
+        /**
+         * Apply a mapping function to the top value of the stack the first time the value is read.
+         * 
+         * @param f
+         *            a function that maps a of type T to a of type R.
+         * @return a stack with a of type R on top.
+         */
+        public <R> Result<R, U> applyLazy(Function<T, R> f) {
+            return HStack.applyLazy(this, f);
+        }
+
         /**
          * Applies a function mapping the rest of the stack.
          * 
@@ -120,19 +166,12 @@ public abstract class HStack<X extends HStack<X>> implements Serializable {
 
         @Override
         public boolean equals(Object obj) {
-            if (this == obj)
-                return true;
-            if (!(obj instanceof Result))
-                return false;
-            Result<?, ?> that = (Result<?, ?>) obj;
-            if (Objects.equals(this.value, that.value))
-                return this.rest.equals(that.rest);
-            return false;
+            return HStack.elementsEqual(this, obj);
         }
 
         @Override
         public int hashCode() {
-            return rest.hashCode() * 31 + (value == null ? 0 : value.hashCode());
+            return HStack.elementsHash(this);
         }
 
         /**
@@ -163,18 +202,296 @@ public abstract class HStack<X extends HStack<X>> implements Serializable {
             return HStack.push(this, value);
         }
 
+        public <V> V foldL(Function<? super Object, V> map, BiFunction<V, V, V> fold) {
+            return rest.foldL(map.apply(value()), map, fold);
+        }
+
         @Override
-        public <V, R> R foldL(R seed, Function<? super Object, V> map, BiFunction<R, V, R> fold) {
-            return rest.foldL(fold.apply(seed, map.apply(value)), map, fold);
+        HStack<?> rest() {
+            return rest;
         }
 
-        public <V> V foldL(Function<? super Object, V> map, BiFunction<V, V, V> fold) {
-            return rest.foldL(map.apply(value), map, fold);
+        @Override
+        Object top() {
+            return value();
+        }
+
+        @Override
+        Object rawTop() {
+            return value;
+        }
+    }
+
+    /**
+     * Captures an unboxed {@code int} for one element of the stack while recursively storing rest of the elements in the stack U.
+     *
+     * @param <U>
+     *            type for the rest of the stack.
+     */
+    public static final class IntResult<U extends HStack<U>> extends HStack<IntResult<U>> {
+        private static final long serialVersionUID = -2480163934460364853L;
+
+        private final U rest;
+        private final int value;
+
+        private IntResult(int value, U rest) {
+            super(rest.depth + 1);
+            this.value = value;
+            this.rest = rest;
+        }
+
+        private void readObject(ObjectInputStream ois) throws InvalidObjectException {
+            throw new InvalidObjectException("proxy required");
+        }
+
+        /**
+         * Apply a mapping function to the top value of the stack without boxing it.
+         * 
+         * @param f
+         *            a function that maps the top {@code int} to a new {@code int}.
+         * @return a stack with the mapped value on top.
+         */
+        public IntResult<U> applyInt(IntUnaryOperator f) {
+            return HStack.applyInt(this, f);
+        }
+
+        /**
+         * Boxes the top value so that it can be used with the functions that only work on {@link Result}.
+         * 
+         * @return a stack with the boxed value on top.
+         */
+        public Result<Integer, U> boxed() {
+            return HStack.push(rest, value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return HStack.elementsEqual(this, obj);
+        }
+
+        @Override
+        public int hashCode() {
+            return HStack.elementsHash(this);
+        }
+
+        /**
+         * Access to the top value in the stack without affecting the structure of the stack.
+         * 
+         * @return the top value of the stack.
+         */
+        public int peekInt() {
+            return HStack.peekInt(this);
+        }
+
+        /**
+         * Discards the top value of the stack.
+         * 
+         * @return the rest of the stack.
+         */
+        public U pop() {
+            return HStack.pop(this);
+        }
+
+        /**
+         * Push a new value onto the stack.
+         * 
+         * @param value
+         *            to be added to top of the stack
+         */
+        public <S> Result<S, IntResult<U>> push(S value) {
+            return HStack.push(this, value);
+        }
+
+        @Override
+        HStack<?> rest() {
+            return rest;
+        }
+
+        @Override
+        Object top() {
+            return value;
+        }
+    }
+
+    /**
+     * Captures an unboxed {@code long} for one element of the stack while recursively storing rest of the elements in the stack U.
+     *
+     * @param <U>
+     *            type for the rest of the stack.
+     */
+    public static final class LongResult<U extends HStack<U>> extends HStack<LongResult<U>> {
+        private static final long serialVersionUID = 4398541675917420391L;
+
+        private final U rest;
+        private final long value;
+
+        private LongResult(long value, U rest) {
+            super(rest.depth + 1);
+            this.value = value;
+            this.rest = rest;
+        }
+
+        private void readObject(ObjectInputStream ois) throws InvalidObjectException {
+            throw new InvalidObjectException("proxy required");
+        }
+
+        /**
+         * Apply a mapping function to the top value of the stack without boxing it.
+         * 
+         * @param f
+         *            a function that maps the top {@code long} to a new {@code long}.
+         * @return a stack with the mapped value on top.
+         */
+        public LongResult<U> applyLong(LongUnaryOperator f) {
+            return HStack.applyLong(this, f);
+        }
+
+        /**
+         * Boxes the top value so that it can be used with the functions that only work on {@link Result}.
+         * 
+         * @return a stack with the boxed value on top.
+         */
+        public Result<Long, U> boxed() {
+            return HStack.push(rest, value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return HStack.elementsEqual(this, obj);
+        }
+
+        @Override
+        public int hashCode() {
+            return HStack.elementsHash(this);
+        }
+
+        /**
+         * Access to the top value in the stack without affecting the structure of the stack.
+         * 
+         * @return the top value of the stack.
+         */
+        public long peekLong() {
+            return HStack.peekLong(this);
+        }
+
+        /**
+         * Discards the top value of the stack.
+         * 
+         * @return the rest of the stack.
+         */
+        public U pop() {
+            return HStack.pop(this);
+        }
+
+        /**
+         * Push a new value onto the stack.
+         * 
+         * @param value
+         *            to be added to top of the stack
+         */
+        public <S> Result<S, LongResult<U>> push(S value) {
+            return HStack.push(this, value);
+        }
+
+        @Override
+        HStack<?> rest() {
+            return rest;
+        }
+
+        @Override
+        Object top() {
+            return value;
+        }
+    }
+
+    /**
+     * Captures an unboxed {@code double} for one element of the stack while recursively storing rest of the elements in the stack U.
+     *
+     * @param <U>
+     *            type for the rest of the stack.
+     */
+    public static final class DoubleResult<U extends HStack<U>> extends HStack<DoubleResult<U>> {
+        private static final long serialVersionUID = -1164946807751253346L;
+
+        private final U rest;
+        private final double value;
+
+        private DoubleResult(double value, U rest) {
+            super(rest.depth + 1);
+            this.value = value;
+            this.rest = rest;
+        }
+
+        private void readObject(ObjectInputStream ois) throws InvalidObjectException {
+            throw new InvalidObjectException("proxy required");
+        }
+
+        /**
+         * Apply a mapping function to the top value of the stack without boxing it.
+         * 
+         * @param f
+         *            a function that maps the top {@code double} to a new {@code double}.
+         * @return a stack with the mapped value on top.
+         */
+        public DoubleResult<U> applyDouble(DoubleUnaryOperator f) {
+            return HStack.applyDouble(this, f);
+        }
+
+        /**
+         * Boxes the top value so that it can be used with the functions that only work on {@link Result}.
+         * 
+         * @return a stack with the boxed value on top.
+         */
+        public Result<Double, U> boxed() {
+            return HStack.push(rest, value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return HStack.elementsEqual(this, obj);
+        }
+
+        @Override
+        public int hashCode() {
+            return HStack.elementsHash(this);
+        }
+
+        /**
+         * Access to the top value in the stack without affecting the structure of the stack.
+         * 
+         * @return the top value of the stack.
+         */
+        public double peekDouble() {
+            return HStack.peekDouble(this);
+        }
+
+        /**
+         * Discards the top value of the stack.
+         * 
+         * @return the rest of the stack.
+         */
+        public U pop() {
+            return HStack.pop(this);
+        }
+
+        /**
+         * Push a new value onto the stack.
+         * 
+         * @param value
+         *            to be added to top of the stack
+         */
+        public <S> Result<S, DoubleResult<U>> push(S value) {
+            return HStack.push(this, value);
+        }
+
+        @Override
+        HStack<?> rest() {
+            return rest;
         }
 
         @Override
-        public <V, R> R foldR(R seed, Function<? super Object, V> map, BiFunction<R, V, R> fold) {
-            return fold.apply(rest.foldR(seed, map, fold), map.apply(value));
+        Object top() {
+            return value;
         }
     }
 
@@ -191,7 +508,28 @@ public abstract class HStack<X extends HStack<X>> implements Serializable {
      * @return a stack with a of type R on top.
      */
     public static <R, T, U extends HStack<U>> Result<R, U> apply(Result<T, U> stack, Function<T, R> f) {
-        return new Result<R, U>(f.apply(stack.value), stack.rest);
+        return new Result<R, U>(f.apply(stack.value()), stack.rest);
+    }
+
+    /**
+     * Apply a mapping function to the top value of the stack the first time the value is read instead of straight away, so a value that is popped or replaced before it is read is never
+     * computed. Lazy applies on top of a value that hasn't been computed yet are composed into a single function. The value is computed at most once even when read by many threads, but the
+     * function must have no side effects that depend on when it runs.
+     * <p>
+     * {@link #pop(Result)}, {@link #dup(Result)}, {@link #swap(Result)} and the other rearrangements move a lazy value without computing it, reading it with {@link #peek(Result)}, a fold,
+     * {@code equals}, {@code hashCode}, {@code toString} or serialization computes it.
+     * 
+     * @param stack
+     *            a stack with of type T on top.
+     * @param f
+     *            a function that maps a of type T to a of type R.
+     * @return a stack with a of type R on top.
+     */
+    @SuppressWarnings("unchecked")
+    public static <R, T, U extends HStack<U>> Result<R, U> applyLazy(Result<T, U> stack, Function<T, R> f) {
+        Object value = stack.value;
+        Deferred deferred = value instanceof Deferred ? ((Deferred) value).then((Function<Object, Object>) f) : new Deferred(value, (Function<Object, Object>) f);
+        return new Result<R, U>(deferred, stack.rest);
     }
 
     /**
@@ -246,52 +584,297 @@ public abstract class HStack<X extends HStack<X>> implements Serializable {
      * @return a new stack with the top two values replaced with the result of the function.
      */
     public static <R, T, U, V extends HStack<V>> Result<R, V> fold(Result<T, Result<U, V>> stack, BiFunction<T, U, R> f) {
-        return new Result<R, V>(f.apply(stack.value, stack.rest.value), stack.rest.rest);
+        return new Result<R, V>(f.apply(stack.value(), stack.rest.value()), stack.rest.rest);
     }
 
-    public abstract <V, R> R foldL(R seed, Function<? super Object, V> map, BiFunction<R, V, R> fold);
-
-    public abstract <V, R> R foldR(R seed, Function<? super Object, V> map, BiFunction<R, V, R> fold);
-
     /**
-     * Access to the top value in the stack without affecting the structure of the stack.
+     * Folds the values of the stack starting from the top.
      * 
-     * @param stack
-     *            a stack with at least one value
-     * @return the top value of the stack.
+     * @param seed
+     *            the initial value passed to the first call of fold.
+     * @param map
+     *            converts each value of the stack before folding it in.
+     * @param fold
+     *            combines the result so far with the next mapped value.
+     * @return the seed if the stack is empty otherwise the result of the last call to fold.
      */
-    public static <T> T peek(Result<T, ?> stack) {
-        return stack.value;
+    public <V, R> R foldL(R seed, Function<? super Object, V> map, BiFunction<R, V, R> fold) {
+        R acc = seed;
+        for (HStack<?> stack = this; stack != BOTTOM; stack = stack.rest()) {
+            acc = fold.apply(acc, map.apply(stack.top()));
+        }
+        return acc;
     }
 
     /**
-     * Discards the top value of the stack.
-     * 
-     * @param stack
-     *            a stack of at least one value.
-     * @return the rest of the stack.
+     * Folds the values of the stack starting from the bottom. The values are collected top down into an array then folded from the bottom up so the depth of the Java stack doesn't grow with the
+     * depth of this stack.
      * 
+     * @param seed
+     *            the initial value passed to the first call of fold.
+     * @param map
+     *            converts each value of the stack before folding it in.
+     * @param fold
+     *            combines the result so far with the next mapped value.
+     * @return the seed if the stack is empty otherwise the result of the last call to fold.
      */
-    public static <U extends HStack<U>> U pop(Result<?, U> stack) {
-        return stack.rest;
+    public <V, R> R foldR(R seed, Function<? super Object, V> map, BiFunction<R, V, R> fold) {
+        Object[] values = new Object[depth];
+        HStack<?> stack = this;
+        for (int i = 0; i < depth; i++) {
+            values[i] = stack.top();
+            stack = stack.rest();
+        }
+        R acc = seed;
+        for (int i = depth - 1; i >= 0; i--) {
+            acc = fold.apply(acc, map.apply(values[i]));
+        }
+        return acc;
     }
 
     /**
-     * Push a new value onto the stack.
-     * 
-     * @param value
-     *            to be added to top of the stack
+     * Folds the values of the stack starting from the top for as long as the result so far passes a test, so a search that finds its answer near the top doesn't walk the rest of the stack.
      * 
-     * @return a new stack with
+     * @param seed
+     *            the initial value passed to the first call of fold.
+     * @param map
+     *            converts each value of the stack before folding it in.
+     * @param fold
+     *            combines the result so far with the next mapped value.
+     * @param test
+     *            checked before each value is folded in, the fold stops once it is false.
+     * @return the first result that fails the test or the result of the last call to fold.
      */
-    public static <T, U extends HStack<U>> Result<T, U> push(U stack, T value) {
-        return new Result<T, U>(value, stack);
+    public <V, R> R foldWhile(R seed, Function<? super Object, V> map, BiFunction<R, V, R> fold, Predicate<? super R> test) {
+        R acc = seed;
+        for (HStack<?> stack = this; stack != BOTTOM && test.test(acc); stack = stack.rest()) {
+            acc = fold.apply(acc, map.apply(stack.top()));
+        }
+        return acc;
     }
 
     /**
-     * Swaps the top two values of the stack. To swap deeper values to the top of the stack combine with {@link HStack#applyRest(Result, Function)} or {@link Result#applyRest(Function)}. For example
-     * to swap the:
-     * <ul>
+     * How far down the stack the first value that matches is, stopping at the first match.
+     * 
+     * @param predicate
+     *            tested against each value from the top, unboxed values are boxed.
+     * @return zero for the top of the stack or -1 if no value matches.
+     */
+    public int indexOf(Predicate<? super Object> predicate) {
+        int index = 0;
+        for (HStack<?> stack = this; stack != BOTTOM; stack = stack.rest()) {
+            if (predicate.test(stack.top()))
+                return index;
+            index++;
+        }
+        return -1;
+    }
+
+    /**
+     * The value nearest the top that matches, stopping at the first match.
+     * 
+     * @param predicate
+     *            tested against each value from the top, unboxed values are boxed.
+     * @return the first value that matches or empty if none match or the matching value is null.
+     */
+    public Optional<Object> find(Predicate<? super Object> predicate) {
+        for (HStack<?> stack = this; stack != BOTTOM; stack = stack.rest()) {
+            Object value = stack.top();
+            if (predicate.test(value))
+                return Optional.ofNullable(value);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Whether any value in the stack matches, stopping at the first match. For example {@code stack.anyMatch(Deadline.class::isInstance)}.
+     * 
+     * @param predicate
+     *            tested against each value from the top, unboxed values are boxed.
+     * @return false for an empty stack.
+     */
+    public boolean anyMatch(Predicate<? super Object> predicate) {
+        return indexOf(predicate) >= 0;
+    }
+
+    /**
+     * Maps and reduces the values of the stack on the common {@link ForkJoinPool} in segments of {@value #PARALLEL_FOLD_CUTOFF} values.
+     * 
+     * @see #parallelFold(Function, BinaryOperator, Object, ForkJoinPool, int)
+     */
+    public <V> V parallelFold(Function<? super Object, V> map, BinaryOperator<V> combine, V identity) {
+        return parallelFold(map, combine, identity, ForkJoinPool.commonPool(), PARALLEL_FOLD_CUTOFF);
+    }
+
+    /**
+     * Maps and reduces the values of the stack in parallel. The stack is walked once to split it into segments of {@code cutoff} values which are each folded sequentially and then combined in
+     * order, so with an associative combiner the result is the same as {@code foldL(identity, map, combine)}. Worth it when the map function is expensive, the walk itself is sequential.
+     * 
+     * @param map
+     *            converts each value of the stack, unboxed values are boxed.
+     * @param combine
+     *            an associative function combining two partial results with the one nearer the top on the left.
+     * @param identity
+     *            the result for an empty segment, combining it with any value must give back that value.
+     * @param pool
+     *            where the segments are folded.
+     * @param cutoff
+     *            the number of values folded sequentially by each task.
+     * @return the identity for an empty stack otherwise the combination of all the mapped values.
+     * @throws IllegalArgumentException
+     *             if the cutoff isn't positive.
+     */
+    public <V> V parallelFold(Function<? super Object, V> map, BinaryOperator<V> combine, V identity, ForkJoinPool pool, int cutoff) {
+        if (cutoff <= 0)
+            throw new IllegalArgumentException("cutoff must be positive: " + cutoff);
+        if (depth == 0)
+            return identity;
+        HStack<?>[] heads = ParallelFold.heads(this, cutoff);
+        return pool.invoke(new ParallelFold<>(heads, cutoff, 0, heads.length, map, combine, identity));
+    }
+
+    /**
+     * Maps every value of the stack at the same time, each on its own task of the executor, and rebuilds the stack from the results. For I/O bound functions the time taken is that of the
+     * slowest value rather than the sum of them all. The type of the stack can't say how each value is mapped so it is up to the function to return a value of the same type as it was given.
+     * <p>
+     * Returns once every task has finished. The first function to fail cancels the tasks that are still waiting and interrupts those that are running, then its exception is thrown without
+     * waiting for the interrupted tasks to stop.
+     * 
+     * @param stack
+     *            a stack of boxed values.
+     * @param f
+     *            maps each value to one of the same type.
+     * @param executor
+     *            runs the tasks, it needs as many threads as there are values for them all to run at once.
+     * @return a new stack of the mapped values.
+     * @throws ExecutionException
+     *             wrapping the first exception thrown by the function.
+     * @throws InterruptedException
+     *             if interrupted while waiting, the tasks are cancelled.
+     * @throws IllegalArgumentException
+     *             if the stack has an unboxed value.
+     */
+    @SuppressWarnings("unchecked")
+    public static <X extends HStack<X>> X applyEach(X stack, Function<Object, ?> f, Executor executor) throws InterruptedException, ExecutionException {
+        Object[] values = toArray(stack);
+        CompletionService<Object> completion = new ExecutorCompletionService<>(executor);
+        Future<?>[] futures = new Future<?>[values.length];
+        Object[] mapped = new Object[values.length];
+        boolean done = false;
+        try {
+            for (int i = 0; i < values.length; i++) {
+                Object value = values[i];
+                futures[i] = completion.submit(() -> f.apply(value));
+            }
+            for (int i = 0; i < values.length; i++) {
+                completion.take().get();
+            }
+            for (int i = 0; i < values.length; i++) {
+                mapped[i] = futures[i].get();
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                for (Future<?> future : futures) {
+                    if (future != null)
+                        future.cancel(true);
+                }
+            }
+        }
+        return (X) fromArray(mapped, 0, mapped.length);
+    }
+
+    /**
+     * A spliterator over the values of the stack from the top down. Unboxed values are boxed. Splitting copies batches of values off the top into arrays so deep stacks can be reduced by a
+     * parallel stream without first copying the whole stack.
+     * 
+     * @return an ordered, sized and immutable spliterator.
+     */
+    public Spliterator<Object> spliterator() {
+        return new HStackSpliterator(this);
+    }
+
+    /**
+     * A stream of the values of the stack from the top down, call {@link Stream#parallel()} on it for a parallel reduction.
+     * 
+     * @return a sequential stream of the values.
+     */
+    public Stream<Object> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Access to the top value in the stack without affecting the structure of the stack.
+     * 
+     * @param stack
+     *            a stack with at least one value
+     * @return the top value of the stack.
+     */
+    public static <T> T peek(Result<T, ?> stack) {
+        return stack.value();
+    }
+
+    /**
+     * Discards the top value of the stack.
+     * 
+     * @param stack
+     *            a stack of at least one value.
+     * @return the rest of the stack.
+     * 
+     */
+    public static <U extends HStack<U>> U pop(Result<?, U> stack) {
+        return stack.rest;
+    }
+
+    /**
+     * Discards the top value of the stack.
+     * 
+     * @param stack
+     *            a stack of at least one value.
+     * @return the rest of the stack.
+     */
+    public static <U extends HStack<U>> U pop(IntResult<U> stack) {
+        return stack.rest;
+    }
+
+    /**
+     * Discards the top value of the stack.
+     * 
+     * @param stack
+     *            a stack of at least one value.
+     * @return the rest of the stack.
+     */
+    public static <U extends HStack<U>> U pop(LongResult<U> stack) {
+        return stack.rest;
+    }
+
+    /**
+     * Discards the top value of the stack.
+     * 
+     * @param stack
+     *            a stack of at least one value.
+     * @return the rest of the stack.
+     */
+    public static <U extends HStack<U>> U pop(DoubleResult<U> stack) {
+        return stack.rest;
+    }
+
+    /**
+     * Push a new value onto the stack.
+     * 
+     * @param value
+     *            to be added to top of the stack
+     * 
+     * @return a new stack with
+     */
+    public static <T, U extends HStack<U>> Result<T, U> push(U stack, T value) {
+        return new Result<T, U>(value, stack);
+    }
+
+    /**
+     * Swaps the top two values of the stack. To swap deeper values to the top of the stack combine with {@link HStack#applyRest(Result, Function)} or {@link Result#applyRest(Function)}. For example
+     * to swap the:
+     * <ul>
      * <li>third value to the top.
      * <p>
      * {@code swap(stack.applyOnRest(HStack::swap))}
@@ -299,6 +882,9 @@ public abstract class HStack<X extends HStack<X>> implements Serializable {
      * <p>
      * {@code swap(stack.applyOnRest(rest -> rest.applyOnRest(HStack::swap)).applyOnRest(HStack::swap)))}
      * </ul>
+     * Each step of those compositions allocates its own nodes so the common rearrangements are also available as single operations that only rebuild the part of the stack they change:
+     * {@link HStack#over(Result)}, {@link HStack#nip(Result)}, {@link HStack#tuck(Result)}, {@link HStack#rot(Result)}, {@link HStack#pick2(Result)}, {@link HStack#pick3(Result)},
+     * {@link HStack#roll3(Result)}, {@link HStack#roll4(Result)}, {@link HStack#swapAt2(Result)} and {@link HStack#swapAt3(Result)}.
      * 
      * @param stack
      *            the stack to swap values on
@@ -308,7 +894,473 @@ public abstract class HStack<X extends HStack<X>> implements Serializable {
         return new Result<>(stack.rest.value, new Result<>(stack.value, stack.rest.rest));
     }
 
-    HStack() {
+    /**
+     * Copies the <b>reference</b> to the second value onto the top of the stack, {@code ( b a -- b a b )} in Forth notation with the top on the right. Only allocates the new top.
+     * 
+     * @param stack
+     *            a stack of at least two values.
+     * @return a stack with the second value also on top.
+     */
+    public static <T, U, V extends HStack<V>> Result<U, Result<T, Result<U, V>>> over(Result<T, Result<U, V>> stack) {
+        return new Result<>(stack.rest.value, stack);
+    }
+
+    /**
+     * Discards the second value of the stack, {@code ( b a -- a )}.
+     * 
+     * @param stack
+     *            a stack of at least two values.
+     * @return a stack with the same top and the second value removed.
+     */
+    public static <T, U, V extends HStack<V>> Result<T, V> nip(Result<T, Result<U, V>> stack) {
+        return new Result<>(stack.value, stack.rest.rest);
+    }
+
+    /**
+     * Copies the <b>reference</b> to the top value below the second value, {@code ( b a -- a b a )}.
+     * 
+     * @param stack
+     *            a stack of at least two values.
+     * @return a stack with the top value also in third place.
+     */
+    public static <T, U, V extends HStack<V>> Result<T, Result<U, Result<T, V>>> tuck(Result<T, Result<U, V>> stack) {
+        Result<U, V> second = stack.rest;
+        return new Result<>(stack.value, new Result<>(second.value, new Result<>(stack.value, second.rest)));
+    }
+
+    /**
+     * Moves the third value to the top of the stack, {@code ( c b a -- b a c )}. Same as {@code swap(stack.applyRest(HStack::swap))} but with one allocation per value moved.
+     * 
+     * @param stack
+     *            a stack of at least three values.
+     * @return a stack with the third value on top.
+     */
+    public static <T, U, W, V extends HStack<V>> Result<W, Result<T, Result<U, V>>> rot(Result<T, Result<U, Result<W, V>>> stack) {
+        Result<U, Result<W, V>> second = stack.rest;
+        Result<W, V> third = second.rest;
+        return new Result<>(third.value, new Result<>(stack.value, new Result<>(second.value, third.rest)));
+    }
+
+    /**
+     * Copies the <b>reference</b> to the third value onto the top of the stack, {@code ( c b a -- c b a c )} or {@code 2 pick} in Forth. Only allocates the new top.
+     * 
+     * @param stack
+     *            a stack of at least three values.
+     * @return a stack with the third value also on top.
+     */
+    public static <T, U, W, V extends HStack<V>> Result<W, Result<T, Result<U, Result<W, V>>>> pick2(Result<T, Result<U, Result<W, V>>> stack) {
+        return new Result<>(stack.rest.rest.value, stack);
+    }
+
+    /**
+     * Copies the <b>reference</b> to the fourth value onto the top of the stack, {@code ( d c b a -- d c b a d )} or {@code 3 pick} in Forth. Only allocates the new top.
+     * 
+     * @param stack
+     *            a stack of at least four values.
+     * @return a stack with the fourth value also on top.
+     */
+    public static <T, U, W, Y, V extends HStack<V>> Result<Y, Result<T, Result<U, Result<W, Result<Y, V>>>>> pick3(Result<T, Result<U, Result<W, Result<Y, V>>>> stack) {
+        return new Result<>(stack.rest.rest.rest.value, stack);
+    }
+
+    /**
+     * Moves the fourth value to the top of the stack, {@code ( d c b a -- c b a d )} or {@code 3 roll} in Forth.
+     * 
+     * @param stack
+     *            a stack of at least four values.
+     * @return a stack with the fourth value on top.
+     */
+    public static <T, U, W, Y, V extends HStack<V>> Result<Y, Result<T, Result<U, Result<W, V>>>> roll3(Result<T, Result<U, Result<W, Result<Y, V>>>> stack) {
+        Result<U, Result<W, Result<Y, V>>> second = stack.rest;
+        Result<W, Result<Y, V>> third = second.rest;
+        Result<Y, V> fourth = third.rest;
+        return new Result<>(fourth.value, new Result<>(stack.value, new Result<>(second.value, new Result<>(third.value, fourth.rest))));
+    }
+
+    /**
+     * Moves the fifth value to the top of the stack, {@code ( e d c b a -- d c b a e )} or {@code 4 roll} in Forth.
+     * 
+     * @param stack
+     *            a stack of at least five values.
+     * @return a stack with the fifth value on top.
+     */
+    public static <T, U, W, Y, Z, V extends HStack<V>> Result<Z, Result<T, Result<U, Result<W, Result<Y, V>>>>> roll4(Result<T, Result<U, Result<W, Result<Y, Result<Z, V>>>>> stack) {
+        Result<U, Result<W, Result<Y, Result<Z, V>>>> second = stack.rest;
+        Result<W, Result<Y, Result<Z, V>>> third = second.rest;
+        Result<Y, Result<Z, V>> fourth = third.rest;
+        Result<Z, V> fifth = fourth.rest;
+        return new Result<>(fifth.value, new Result<>(stack.value, new Result<>(second.value, new Result<>(third.value, new Result<>(fourth.value, fifth.rest)))));
+    }
+
+    /**
+     * Exchanges the top value with the third value, {@code ( c b a -- a b c )}.
+     * 
+     * @param stack
+     *            a stack of at least three values.
+     * @return a stack with the top and third values exchanged.
+     */
+    public static <T, U, W, V extends HStack<V>> Result<W, Result<U, Result<T, V>>> swapAt2(Result<T, Result<U, Result<W, V>>> stack) {
+        Result<U, Result<W, V>> second = stack.rest;
+        Result<W, V> third = second.rest;
+        return new Result<>(third.value, new Result<>(second.value, new Result<>(stack.value, third.rest)));
+    }
+
+    /**
+     * Exchanges the top value with the fourth value, {@code ( d c b a -- a c b d )}.
+     * 
+     * @param stack
+     *            a stack of at least four values.
+     * @return a stack with the top and fourth values exchanged.
+     */
+    public static <T, U, W, Y, V extends HStack<V>> Result<Y, Result<U, Result<W, Result<T, V>>>> swapAt3(Result<T, Result<U, Result<W, Result<Y, V>>>> stack) {
+        Result<U, Result<W, Result<Y, V>>> second = stack.rest;
+        Result<W, Result<Y, V>> third = second.rest;
+        Result<Y, V> fourth = third.rest;
+        return new Result<>(fourth.value, new Result<>(second.value, new Result<>(third.value, new Result<>(stack.value, fourth.rest))));
+    }
+
+    /**
+     * Push a new unboxed {@code int} onto the stack.
+     * 
+     * @param stack
+     *            the stack to push on to.
+     * @param value
+     *            to be added to top of the stack
+     * @return a new stack with the value on top.
+     */
+    public static <U extends HStack<U>> IntResult<U> pushInt(U stack, int value) {
+        return new IntResult<U>(value, stack);
+    }
+
+    /**
+     * Access to the top unboxed value in the stack without affecting the structure of the stack.
+     * 
+     * @param stack
+     *            a stack with at least one value
+     * @return the top value of the stack.
+     */
+    public static int peekInt(IntResult<?> stack) {
+        return stack.value;
+    }
+
+    /**
+     * Apply a mapping function to the top unboxed value of the stack.
+     * 
+     * @param stack
+     *            a stack with a {@code int} on top.
+     * @param f
+     *            a function that maps the top {@code int} to a new {@code int}.
+     * @return a stack with the mapped value on top.
+     */
+    public static <U extends HStack<U>> IntResult<U> applyInt(IntResult<U> stack, IntUnaryOperator f) {
+        return new IntResult<U>(f.applyAsInt(stack.value), stack.rest);
+    }
+
+    /**
+     * Applies a function to fold the top unboxed value into the second unboxed value of the stack. For example {@code foldInt(stack, Integer::sum)}.
+     * 
+     * @param stack
+     *            the stack to apply the function to.
+     * @param f
+     *            a function that folds the top two values into a new value.
+     * @return a new stack with the top two values replaced with the result of the function.
+     */
+    public static <V extends HStack<V>> IntResult<V> foldInt(IntResult<IntResult<V>> stack, IntBinaryOperator f) {
+        return new IntResult<V>(f.applyAsInt(stack.value, stack.rest.value), stack.rest.rest);
+    }
+
+    /**
+     * Push a new unboxed {@code long} onto the stack.
+     * 
+     * @param stack
+     *            the stack to push on to.
+     * @param value
+     *            to be added to top of the stack
+     * @return a new stack with the value on top.
+     */
+    public static <U extends HStack<U>> LongResult<U> pushLong(U stack, long value) {
+        return new LongResult<U>(value, stack);
+    }
+
+    /**
+     * Access to the top unboxed value in the stack without affecting the structure of the stack.
+     * 
+     * @param stack
+     *            a stack with at least one value
+     * @return the top value of the stack.
+     */
+    public static long peekLong(LongResult<?> stack) {
+        return stack.value;
+    }
+
+    /**
+     * Apply a mapping function to the top unboxed value of the stack.
+     * 
+     * @param stack
+     *            a stack with a {@code long} on top.
+     * @param f
+     *            a function that maps the top {@code long} to a new {@code long}.
+     * @return a stack with the mapped value on top.
+     */
+    public static <U extends HStack<U>> LongResult<U> applyLong(LongResult<U> stack, LongUnaryOperator f) {
+        return new LongResult<U>(f.applyAsLong(stack.value), stack.rest);
+    }
+
+    /**
+     * Applies a function to fold the top unboxed value into the second unboxed value of the stack. For example {@code foldLong(stack, Long::sum)}.
+     * 
+     * @param stack
+     *            the stack to apply the function to.
+     * @param f
+     *            a function that folds the top two values into a new value.
+     * @return a new stack with the top two values replaced with the result of the function.
+     */
+    public static <V extends HStack<V>> LongResult<V> foldLong(LongResult<LongResult<V>> stack, LongBinaryOperator f) {
+        return new LongResult<V>(f.applyAsLong(stack.value, stack.rest.value), stack.rest.rest);
+    }
+
+    /**
+     * Push a new unboxed {@code double} onto the stack.
+     * 
+     * @param stack
+     *            the stack to push on to.
+     * @param value
+     *            to be added to top of the stack
+     * @return a new stack with the value on top.
+     */
+    public static <U extends HStack<U>> DoubleResult<U> pushDouble(U stack, double value) {
+        return new DoubleResult<U>(value, stack);
+    }
+
+    /**
+     * Access to the top unboxed value in the stack without affecting the structure of the stack.
+     * 
+     * @param stack
+     *            a stack with at least one value
+     * @return the top value of the stack.
+     */
+    public static double peekDouble(DoubleResult<?> stack) {
+        return stack.value;
+    }
+
+    /**
+     * Apply a mapping function to the top unboxed value of the stack.
+     * 
+     * @param stack
+     *            a stack with a {@code double} on top.
+     * @param f
+     *            a function that maps the top {@code double} to a new {@code double}.
+     * @return a stack with the mapped value on top.
+     */
+    public static <U extends HStack<U>> DoubleResult<U> applyDouble(DoubleResult<U> stack, DoubleUnaryOperator f) {
+        return new DoubleResult<U>(f.applyAsDouble(stack.value), stack.rest);
+    }
+
+    /**
+     * Applies a function to fold the top unboxed value into the second unboxed value of the stack. For example {@code foldDouble(stack, Double::sum)}.
+     * 
+     * @param stack
+     *            the stack to apply the function to.
+     * @param f
+     *            a function that folds the top two values into a new value.
+     * @return a new stack with the top two values replaced with the result of the function.
+     */
+    public static <V extends HStack<V>> DoubleResult<V> foldDouble(DoubleResult<DoubleResult<V>> stack, DoubleBinaryOperator f) {
+        return new DoubleResult<V>(f.applyAsDouble(stack.value, stack.rest.value), stack.rest.rest);
+    }
+
+    /**
+     * Compares the stacks value by value so that stacks built from different node types are still equal as long as the boxed values are. Checked at every level before the values are compared,
+     * stacks are equal as soon as they reach a shared node, such as the base two stacks were pushed onto, and unequal as soon as both nodes have cached hashes that differ.
+     */
+    static boolean elementsEqual(HStack<?> stack, Object obj) {
+        if (stack == obj)
+            return true;
+        if (!(obj instanceof HStack))
+            return false;
+        HStack<?> a = stack;
+        HStack<?> b = (HStack<?>) obj;
+        if (a.depth != b.depth)
+            return false;
+        // walk both stacks in lock step instead of recursing so deep stacks don't overflow
+        while (a != BOTTOM) {
+            if (a == b)
+                return true;
+            // zero is also the hash of a node that hasn't cached one yet
+            if (a.hash != b.hash && a.hash != 0 && b.hash != 0)
+                return false;
+            if (!Objects.equals(a.top(), b.top()))
+                return false;
+            a = a.rest();
+            b = b.rest();
+        }
+        return a == b;
+    }
+
+    /**
+     * The longest stack both stacks are built on, found by stepping down the deeper stack until the depths match and then both together until they reach the same node. Only the nodes above the
+     * shared tail are visited so for stacks forked from a common base it is proportional to how far they have diverged, not to their depth. Equal values in different nodes aren't shared, use a
+     * {@link HStackInterner} to share them.
+     * 
+     * @param a
+     *            a stack.
+     * @param b
+     *            another stack.
+     * @return the deepest node of both stacks, the bottom of the stack if they share nothing else.
+     */
+    public static HStack<?> commonTail(HStack<?> a, HStack<?> b) {
+        while (a.depth > b.depth) {
+            a = a.rest();
+        }
+        while (b.depth > a.depth) {
+            b = b.rest();
+        }
+        while (a != b) {
+            a = a.rest();
+            b = b.rest();
+        }
+        return a;
+    }
+
+    /**
+     * Same as {@code rest.hashCode() * 31 + Objects.hashCode(value)} but computed in a loop from the deepest node without a cached hash back up to the top, caching the hash of every node along the
+     * way. Like {@link String#hashCode()} the cache is racy but benign since every thread computes the same value.
+     */
+    static int elementsHash(HStack<?> stack) {
+        int hash = stack.hash;
+        if (hash != 0)
+            return hash;
+        HStack<?> known = stack;
+        while (known != BOTTOM && known.hash == 0) {
+            known = known.rest();
+        }
+        HStack<?>[] pending = new HStack<?>[stack.depth - known.depth];
+        for (int i = 0; i < pending.length; i++) {
+            pending[i] = stack;
+            stack = stack.rest();
+        }
+        hash = known == BOTTOM ? BOTTOM.hashCode() : known.hash;
+        for (int i = pending.length - 1; i >= 0; i--) {
+            hash = hash * 31 + Objects.hashCode(pending[i].top());
+            pending[i].hash = hash;
+        }
+        return hash;
+    }
+
+    /**
+     * Copies the values of the stack into an array with the bottom value first. Once in an array an unboxed value can't be told apart from a boxed one so the stack may only be made of
+     * {@link Result}s.
+     */
+    static Object[] toArray(HStack<?> stack) {
+        Object[] values = new Object[stack.depth];
+        for (int i = values.length - 1; i >= 0; i--) {
+            if (!(stack instanceof Result))
+                throw new IllegalArgumentException("the " + stack.getClass().getSimpleName() + " at depth " + (i + 1) + " has to be boxed() first");
+            values[i] = ((Result<?, ?>) stack).value();
+            stack = stack.rest();
+        }
+        return values;
+    }
+
+    /**
+     * Builds a stack of {@link Result}s from a slice of an array with the bottom value first.
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    static HStack<?> fromArray(Object[] values, int from, int to) {
+        HStack stack = BOTTOM;
+        for (int i = from; i < to; i++) {
+            stack = new Result(values[i], stack);
+        }
+        return stack;
+    }
+
+    /** default number of values folded sequentially by each task of {@link #parallelFold(Function, BinaryOperator, Object)} */
+    static final int PARALLEL_FOLD_CUTOFF = 1 << 12;
+
+    /** number of values in the stack, fixed when the node is created so {@link #size()} is constant time */
+    final int depth;
+    /** lazily cached {@link #hashCode()} of the nodes holding values, zero until it is first computed */
+    transient int hash;
+
+    HStack(int depth) {
+        this.depth = depth;
+    }
+
+    /**
+     * The number of values in the stack. Unlike a fold this doesn't need to walk the stack.
+     * 
+     * @return zero for the bottom of the stack otherwise one more than the rest of the stack.
+     */
+    public int size() {
+        return depth;
+    }
+
+    /**
+     * Streams written before the depth was tracked hold nodes with no depth, which would read back as empty stacks with values in them, so they are rejected rather than read wrong.
+     */
+    private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+        ois.defaultReadObject();
+        if (depth == 0 && !(this instanceof Bottom))
+            throw new InvalidObjectException("no depth in " + getClass().getSimpleName() + ", the stream was written by an older version");
+    }
+
+    /**
+     * Stacks with values are written with a flat {@link SerializationProxy} instead of the default recursive object graph. The {@link Bottom} is written as is so its {@code readResolve} can keep
+     * it a singleton.
+     */
+    Object writeReplace() {
+        return depth == 0 ? this : new SerializationProxy(this);
+    }
+
+    /**
+     * @return the stack below the top value or {@code null} for the bottom of the stack.
+     */
+    abstract HStack<?> rest();
+
+    /**
+     * @return the top value of the stack, boxed if the node holds a primitive.
+     */
+    abstract Object top();
+
+    /**
+     * @return the top value as it is held, a lazily applied value that hasn't been read yet is returned without computing it so it can be moved to another node with
+     *         {@link #push(HStack, Object)} and still only be computed if it is read.
+     */
+    Object rawTop() {
+        return top();
+    }
+
+    /**
+     * Push a new unboxed {@code int} onto the stack.
+     * 
+     * @param value
+     *            to be added to top of the stack
+     */
+    @SuppressWarnings("unchecked")
+    public IntResult<X> pushInt(int value) {
+        return HStack.pushInt((X) this, value);
+    }
+
+    /**
+     * Push a new unboxed {@code long} onto the stack.
+     * 
+     * @param value
+     *            to be added to top of the stack
+     */
+    @SuppressWarnings("unchecked")
+    public LongResult<X> pushLong(long value) {
+        return HStack.pushLong((X) this, value);
+    }
+
+    /**
+     * Push a new unboxed {@code double} onto the stack.
+     * 
+     * @param value
+     *            to be added to top of the stack
+     */
+    @SuppressWarnings("unchecked")
+    public DoubleResult<X> pushDouble(double value) {
+        return HStack.pushDouble((X) this, value);
     }
 
     /**
@@ -316,6 +1368,99 @@ public abstract class HStack<X extends HStack<X>> implements Serializable {
      */
     @Override
     public String toString() {
-        return foldL(new StringJoiner(", ", "[", "]"), String::valueOf, StringJoiner::add).toString();
+        return toString(Integer.MAX_VALUE);
+    }
+
+    /**
+     * The same as {@link #toString()} but stops after a number of values, for logging deep stacks.
+     * 
+     * @param limit
+     *            the most values to write, the rest are replaced with a count of how many were left out.
+     * @return for example {@code [1, 2, ... 98 more]}.
+     * @throws IllegalArgumentException
+     *             if the limit is negative.
+     */
+    public String toString(int limit) {
+        if (limit < 0)
+            throw new IllegalArgumentException("limit must not be negative: " + limit);
+        // guess a few characters per value to avoid most of the resizing on deep stacks, in long since it passes the largest array for hundreds of millions of values
+        StringBuilder builder = new StringBuilder((int) Math.min(Integer.MAX_VALUE - 32, 2L + 8L * Math.min(depth, limit) + (depth > limit ? 16 : 0)));
+        try {
+            return appendTo(builder, limit).toString();
+        } catch (IOException e) {
+            throw new AssertionError("StringBuilder doesn't throw", e);
+        }
+    }
+
+    /**
+     * Writes the stack in the format of {@link #toString()} straight to the output without building the whole string first.
+     * 
+     * @param out
+     *            where the values are written.
+     * @return the output.
+     * @throws IOException
+     *             if the output fails.
+     */
+    public <A extends Appendable> A appendTo(A out) throws IOException {
+        return appendTo(out, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Writes the stack in the format of {@link #toString(int)} straight to the output without building the whole string first.
+     * 
+     * @param out
+     *            where the values are written.
+     * @param limit
+     *            the most values to write, the rest are replaced with a count of how many were left out.
+     * @return the output.
+     * @throws IOException
+     *             if the output fails.
+     * @throws IllegalArgumentException
+     *             if the limit is negative.
+     */
+    public <A extends Appendable> A appendTo(A out, int limit) throws IOException {
+        if (limit < 0)
+            throw new IllegalArgumentException("limit must not be negative: " + limit);
+        out.append('[');
+        int written = 0;
+        for (HStack<?> stack = this; stack != BOTTOM; stack = stack.rest()) {
+            if (written > 0)
+                out.append(", ");
+            if (written == limit) {
+                out.append("... ").append(Integer.toString(depth - written)).append(" more");
+                break;
+            }
+            Object value = stack.top();
+            out.append(value instanceof CharSequence ? (CharSequence) value : String.valueOf(value));
+            written++;
+        }
+        out.append(']');
+        return out;
+    }
+
+    /**
+     * Streams the stack in the format of {@link #toString()} to a writer.
+     * 
+     * @param out
+     *            where the values are written, it is left open and unflushed.
+     * @throws IOException
+     *             if the writer fails.
+     */
+    public void writeTo(Writer out) throws IOException {
+        appendTo(out);
+    }
+
+    /**
+     * Streams the stack in the format of {@link #toString(int)} to a writer.
+     * 
+     * @param out
+     *            where the values are written, it is left open and unflushed.
+     * @param limit
+     *            the most values to write, the rest are replaced with a count of how many were left out.
+     * @throws IOException
+     *             if the writer fails.
+     */
+    public void writeTo(Writer out, int limit) throws IOException {
+        appendTo(out, limit);
     }
 }
@@ -0,0 +1,209 @@
+package net.gibr.util.hstack;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.gibr.util.hstack.HStack.DoubleResult;
+import net.gibr.util.hstack.HStack.IntResult;
+import net.gibr.util.hstack.HStack.LongResult;
+
+/**
+ * Hash-conses stacks so equal stacks interned by the same interner are the same object and share every node below the top, which lets {@link HStack#equals(Object)} stop as soon as it meets a
+ * shared node and keeps only one copy of common stacks on the heap.
+ * <p>
+ * Nodes are canonicalised from the bottom up and looked up by their kind, their value and the identity of their already canonical rest, so each lookup is constant time whatever the depth. The
+ * table only holds weak references to the canonical nodes and entries are removed once a node has been collected. Values must not change once interned, just as they must not for
+ * {@link HStack#hashCode()}.
+ * <p>
+ * Safe for use by many threads, when two threads race to intern equal nodes one of them wins and both get the winner.
+ */
+public final class HStackInterner {
+    /** the hash of a node of a given kind holding the value on top of the canonical rest */
+    private static int hash(Class<?> kind, Object value, HStack<?> rest) {
+        return (31 * System.identityHashCode(rest) + Objects.hashCode(value)) * 31 + kind.hashCode();
+    }
+
+    /**
+     * Looks up a node of a given kind holding an equal value on top of the same canonical rest. It is equal to a {@link NodeReference} to such a node and the reference is equal to it, so
+     * the table is consistent whichever side the map compares from.
+     */
+    private static final class Key {
+        final Class<?> kind;
+        final Object value;
+        final HStack<?> rest;
+        final int hash;
+
+        Key(Class<?> kind, Object value, HStack<?> rest) {
+            this.kind = kind;
+            this.value = value;
+            this.rest = rest;
+            this.hash = hash(kind, value, rest);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof Key) {
+                Key other = (Key) obj;
+                return other.kind == kind && other.rest == rest && Objects.equals(other.value, value);
+            }
+            if (!(obj instanceof NodeReference))
+                return false;
+            return matches(((NodeReference) obj).get());
+        }
+
+        boolean matches(HStack<?> node) {
+            return node != null && node.getClass() == kind && node.rest() == rest && Objects.equals(node.top(), value);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * The key of a canonical node in the table. It only refers to the node weakly so nothing in the table keeps a node, its value or its rest alive, and a whole stack that is no longer used
+     * can be collected at once. Once its node has been collected it is only equal to itself so it can still be removed.
+     */
+    private static final class NodeReference extends WeakReference<HStack<?>> {
+        final int hash;
+
+        NodeReference(HStack<?> node, ReferenceQueue<HStack<?>> queue) {
+            super(node, queue);
+            this.hash = hash(node.getClass(), node.top(), node.rest());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj instanceof Key)
+                return ((Key) obj).matches(get());
+            if (!(obj instanceof NodeReference))
+                return false;
+            HStack<?> a = get();
+            HStack<?> b = ((NodeReference) obj).get();
+            return a != null && b != null && a.getClass() == b.getClass() && a.rest() == b.rest() && Objects.equals(a.top(), b.top());
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private final ConcurrentHashMap<Object, NodeReference> table = new ConcurrentHashMap<>();
+    private final ReferenceQueue<HStack<?>> queue = new ReferenceQueue<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Finds the canonical copy of a stack, adding the nodes that aren't in the table yet. The given nodes are reused whenever they already sit on the canonical rest so interning a new stack
+     * only allocates nodes above the first one that had to be replaced.
+     *
+     * @param stack
+     *            the stack to intern.
+     * @return the canonical stack equal to the given one.
+     */
+    @SuppressWarnings("unchecked")
+    public <X extends HStack<X>> X intern(X stack) {
+        expunge();
+        HStack<?>[] nodes = new HStack<?>[stack.depth];
+        HStack<?> s = stack;
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = s;
+            s = s.rest();
+        }
+        HStack<?> canonical = s;
+        for (int i = nodes.length - 1; i >= 0; i--) {
+            canonical = intern(nodes[i], canonical);
+        }
+        return (X) canonical;
+    }
+
+    /** the canonical node equal to {@code node} on top of {@code rest}, the canonical form of its rest */
+    private HStack<?> intern(HStack<?> node, HStack<?> rest) {
+        Key key = new Key(node.getClass(), node.top(), rest);
+        NodeReference found = table.get(key);
+        HStack<?> existing = found == null ? null : found.get();
+        if (existing != null) {
+            hits.increment();
+            return existing;
+        }
+        misses.increment();
+        HStack<?> candidate = node.rest() == rest ? node : rebuild(node, rest);
+        NodeReference added = new NodeReference(candidate, queue);
+        while (true) {
+            found = table.putIfAbsent(added, added);
+            if (found == null)
+                return candidate;
+            existing = found.get();
+            if (existing != null)
+                return existing;
+            // the node that was found has been collected since, so it won't be found again
+        }
+    }
+
+    /** a copy of the node on top of a different rest */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static HStack<?> rebuild(HStack<?> node, HStack rest) {
+        if (node instanceof IntResult)
+            return HStack.pushInt(rest, HStack.peekInt((IntResult<?>) node));
+        if (node instanceof LongResult)
+            return HStack.pushLong(rest, HStack.peekLong((LongResult<?>) node));
+        if (node instanceof DoubleResult)
+            return HStack.pushDouble(rest, HStack.peekDouble((DoubleResult<?>) node));
+        return HStack.push(rest, node.top());
+    }
+
+    /** removes the entries of collected nodes */
+    private void expunge() {
+        NodeReference ref;
+        while ((ref = (NodeReference) queue.poll()) != null) {
+            table.remove(ref, ref);
+        }
+    }
+
+    /**
+     * The number of canonical nodes in the table.
+     *
+     * @return an estimate that can include nodes that have been collected but not removed yet.
+     */
+    public int size() {
+        expunge();
+        return table.size();
+    }
+
+    /**
+     * @return the number of nodes that were found in the table.
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of nodes that had to be added to the table.
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * The fraction of nodes looked up that were already in the table.
+     *
+     * @return between zero and one, zero if nothing has been interned.
+     */
+    public double hitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return "HStackInterner[size=" + table.size() + ", hits=" + hits.sum() + ", misses=" + misses.sum() + "]";
+    }
+}
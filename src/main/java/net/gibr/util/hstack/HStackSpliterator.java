@@ -0,0 +1,76 @@
+package net.gibr.util.hstack;
+
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Traverses the values of an {@link HStack} from the top down. Since a linked stack can only be split by walking it {@link #trySplit()} copies a batch of values from the top into an array
+ * that is returned as its own spliterator, with each batch {@value #BATCH_UNIT} values bigger than the last so a deep stack splits into enough pieces to keep the workers of a parallel stream
+ * busy while the cost of splitting stays linear in the depth. The depth of every node is known so both sides of a split are exactly sized.
+ * <p>
+ * Values can be null so the spliterator isn't {@link Spliterator#NONNULL}, but a stack never changes so it is {@link Spliterator#IMMUTABLE}.
+ */
+final class HStackSpliterator implements Spliterator<Object> {
+    static final int BATCH_UNIT = 1 << 10;
+    static final int MAX_BATCH = 1 << 25;
+    static final int CHARACTERISTICS = ORDERED | SIZED | SUBSIZED | IMMUTABLE;
+
+    private HStack<?> stack;
+    private int batch;
+
+    HStackSpliterator(HStack<?> stack) {
+        this.stack = stack;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Object> action) {
+        Objects.requireNonNull(action);
+        if (stack.depth == 0)
+            return false;
+        Object value = stack.top();
+        stack = stack.rest();
+        action.accept(value);
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Object> action) {
+        Objects.requireNonNull(action);
+        HStack<?> s = stack;
+        // set before calling the action so a failing action doesn't leave values to be seen again
+        stack = HStack.create();
+        for (int i = s.depth; i > 0; i--) {
+            action.accept(s.top());
+            s = s.rest();
+        }
+    }
+
+    @Override
+    public Spliterator<Object> trySplit() {
+        int remaining = stack.depth;
+        if (remaining <= 1)
+            return null;
+        int n = Math.min(Math.min(batch + BATCH_UNIT, MAX_BATCH), remaining);
+        Object[] values = new Object[n];
+        HStack<?> s = stack;
+        for (int i = 0; i < n; i++) {
+            values[i] = s.top();
+            s = s.rest();
+        }
+        stack = s;
+        batch = n;
+        return Spliterators.spliterator(values, 0, n, CHARACTERISTICS);
+    }
+
+    @Override
+    public long estimateSize() {
+        return stack.depth;
+    }
+
+    @Override
+    public int characteristics() {
+        return CHARACTERISTICS;
+    }
+}
@@ -0,0 +1,67 @@
+package net.gibr.util.hstack;
+
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+/**
+ * Reduces a range of segments of a stack for {@link HStack#parallelFold(Function, BinaryOperator, Object, java.util.concurrent.ForkJoinPool, int)}. The head of every segment is found by a
+ * single walk down the stack up front so the tasks can split the range of segments in half without walking the stack again, and the left half is always combined before the right so the
+ * result is the same as a fold from the top with an associative combiner.
+ */
+final class ParallelFold<V> extends RecursiveTask<V> {
+    private static final long serialVersionUID = 1L;
+
+    private final HStack<?>[] heads;
+    private final int cutoff;
+    private final int from;
+    private final int to;
+    private final Function<? super Object, V> map;
+    private final BinaryOperator<V> combine;
+    private final V identity;
+
+    ParallelFold(HStack<?>[] heads, int cutoff, int from, int to, Function<? super Object, V> map, BinaryOperator<V> combine, V identity) {
+        this.heads = heads;
+        this.cutoff = cutoff;
+        this.from = from;
+        this.to = to;
+        this.map = map;
+        this.combine = combine;
+        this.identity = identity;
+    }
+
+    /** the nodes at the top of each segment of {@code cutoff} values of a non empty stack, the last one can be shorter */
+    static HStack<?>[] heads(HStack<?> stack, int cutoff) {
+        // rounds up without overflowing for cutoffs near Integer.MAX_VALUE
+        HStack<?>[] heads = new HStack<?>[(stack.depth - 1) / cutoff + 1];
+        HStack<?> s = stack;
+        for (int i = 0; i < heads.length; i++) {
+            heads[i] = s;
+            for (int j = 0; j < cutoff && s.depth > 0; j++) {
+                s = s.rest();
+            }
+        }
+        return heads;
+    }
+
+    @Override
+    protected V compute() {
+        if (to - from == 1)
+            return foldSegment(heads[from]);
+        int middle = (from + to) >>> 1;
+        ParallelFold<V> left = new ParallelFold<>(heads, cutoff, from, middle, map, combine, identity);
+        left.fork();
+        V right = new ParallelFold<>(heads, cutoff, middle, to, map, combine, identity).compute();
+        return combine.apply(left.join(), right);
+    }
+
+    private V foldSegment(HStack<?> head) {
+        V acc = identity;
+        HStack<?> s = head;
+        for (int i = Math.min(cutoff, head.depth); i > 0; i--) {
+            acc = combine.apply(acc, map.apply(s.top()));
+            s = s.rest();
+        }
+        return acc;
+    }
+}
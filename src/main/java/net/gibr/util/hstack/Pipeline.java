@@ -0,0 +1,372 @@
+package net.gibr.util.hstack;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.StringJoiner;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import net.gibr.util.hstack.HStack.Result;
+
+/**
+ * A recorded sequence of stack operations that can be run on any number of stacks. The operations are recorded once with the same type checking as the statics on {@link HStack}:
+ * <p>
+ * {@code Pipeline.<Result<String, Bottom>> start().push("b").then(Pipeline::swap).then(p -> Pipeline.fold(p, String::concat))}
+ * <p>
+ * Before the first run the operations go through a peephole pass that drops pairs that cancel out ({@code swap; swap}, {@code push; pop} and {@code dup; pop}), composes consecutive applies into
+ * one and turns {@code dup; fold} into a single apply. What is left is compiled: the rearranging operations are resolved ahead of the first run so each run only reads the values the
+ * program reaches into an array, calls the user functions in order and pushes the values that aren't already in place onto the untouched part of the input. No intermediate nodes are allocated.
+ * The calls are generated into a class for the pipeline, so each user function is called from a call site of its own that the JIT can inline it into, unlike
+ * {@link HStack#apply(Result, Function)} where every function goes through the same site. Values applied with {@link HStack#applyLazy(Result, Function)} are only computed when a recorded function reads them, moving or dropping them doesn't.
+ * <p>
+ * Like the stacks themselves a pipeline is immutable and every operation returns a new pipeline sharing the operations recorded before it.
+ *
+ * @param <In>
+ *            the type of the stacks the pipeline is applied to.
+ * @param <Out>
+ *            the type of the stacks the pipeline produces.
+ */
+public final class Pipeline<In extends HStack<In>, Out extends HStack<Out>> implements Function<In, Out> {
+    private enum Kind {
+        PUSH(0, 1), POP(1, 0), APPLY(1, 1), SWAP(2, 2), DUP(1, 2), FOLD(2, 1);
+
+        /** how many values the operation reads off the stack */
+        final int takes;
+        /** how many values the operation leaves on the stack in their place */
+        final int gives;
+
+        Kind(int takes, int gives) {
+            this.takes = takes;
+            this.gives = gives;
+        }
+    }
+
+    private static final class Op {
+        final Kind kind;
+        /** the value for push, the function for apply and fold */
+        final Object arg;
+
+        Op(Kind kind, Object arg) {
+            this.kind = kind;
+            this.arg = arg;
+        }
+
+        @Override
+        public String toString() {
+            return kind.name().toLowerCase();
+        }
+    }
+
+    /**
+     * The optimized operations compiled for running. The operations are run once symbolically ahead of time keeping track of which slot of the array each stack position would hold, so at run
+     * time push, pop, swap and dup cost nothing and only the calls to the user functions are left, in their original order, which {@link PipelineCompiler} turns into a class of their own.
+     * <p>
+     * The slots start with the values read from the input stack followed by the pushed constants and then one slot for the result of each call.
+     */
+    private static final class Program {
+        final Op[] ops;
+        /** how many values of the input stack the operations reach down to */
+        final int consumed;
+        /** how many of the consumed input nodes end up in the same position and can be reused as is */
+        final int kept;
+        /** slots with the pushed constants filled in, cloned for each run */
+        final Object[] template;
+        /** runs the calls to the user functions on the slots */
+        final Consumer<Object[]> calls;
+        /** the slots to push onto the kept part of the input from the bottom up */
+        final int[] outputs;
+
+        Program(Op[] ops) {
+            this.ops = ops;
+            int depth = 0;
+            int lowest = 0;
+            int constants = 0;
+            int results = 0;
+            for (Op op : ops) {
+                depth -= op.kind.takes;
+                lowest = Math.min(lowest, depth);
+                depth += op.kind.gives;
+                if (op.kind == Kind.PUSH)
+                    constants++;
+                else if (op.kind == Kind.APPLY || op.kind == Kind.FOLD)
+                    results++;
+            }
+            consumed = -lowest;
+            template = new Object[consumed + constants + results];
+            Object[] functions = new Object[results];
+            int[] outs = new int[results];
+            int[] firsts = new int[results];
+            int[] seconds = new int[results];
+
+            // the slot held at each position of the stack with the bottom most consumed input first
+            int[] stack = new int[consumed + ops.length];
+            int sp = 0;
+            while (sp < consumed) {
+                stack[sp] = sp;
+                sp++;
+            }
+            int next = consumed;
+            int call = 0;
+            for (Op op : ops) {
+                switch (op.kind) {
+                case PUSH:
+                    template[next] = op.arg;
+                    stack[sp++] = next++;
+                    break;
+                case POP:
+                    sp--;
+                    break;
+                case APPLY:
+                    functions[call] = op.arg;
+                    firsts[call] = stack[sp - 1];
+                    seconds[call] = -1;
+                    outs[call++] = next;
+                    stack[sp - 1] = next++;
+                    break;
+                case SWAP:
+                    int top = stack[sp - 1];
+                    stack[sp - 1] = stack[sp - 2];
+                    stack[sp - 2] = top;
+                    break;
+                case DUP:
+                    stack[sp] = stack[sp - 1];
+                    sp++;
+                    break;
+                case FOLD:
+                    functions[call] = op.arg;
+                    firsts[call] = stack[sp - 1];
+                    seconds[call] = stack[sp - 2];
+                    outs[call++] = next;
+                    stack[sp - 2] = next++;
+                    sp--;
+                    break;
+                }
+            }
+            int keep = 0;
+            while (keep < sp && keep < consumed && stack[keep] == keep) {
+                keep++;
+            }
+            kept = keep;
+            outputs = new int[sp - keep];
+            System.arraycopy(stack, keep, outputs, 0, outputs.length);
+            calls = PipelineCompiler.compile(functions, outs, firsts, seconds);
+        }
+    }
+
+    private static final Pipeline<?, ?> START = new Pipeline<>(null, null);
+
+    /** the pipeline before the last operation, null for the start */
+    private final Pipeline<In, ?> previous;
+    private final Op op;
+    /** lazily compiled, racy but benign since every thread builds an equivalent program, at worst generating a class that is soon unloaded */
+    private Program program;
+
+    private Pipeline(Pipeline<In, ?> previous, Op op) {
+        this.previous = previous;
+        this.op = op;
+    }
+
+    /**
+     * Start recording a pipeline that does nothing.
+     *
+     * @return a pipeline that returns its input.
+     */
+    @SuppressWarnings("unchecked")
+    public static <X extends HStack<X>> Pipeline<X, X> start() {
+        return (Pipeline<X, X>) START;
+    }
+
+    /**
+     * Record applying a mapping function to the top value of the stack.
+     *
+     * @param pipeline
+     *            a pipeline producing a stack with a value of type T on top.
+     * @param f
+     *            a function that maps a of type T to a of type R.
+     * @return a pipeline producing a stack with a of type R on top.
+     * @see HStack#apply(Result, Function)
+     */
+    public static <In extends HStack<In>, R, T, U extends HStack<U>> Pipeline<In, Result<R, U>> apply(Pipeline<In, Result<T, U>> pipeline, Function<T, R> f) {
+        return pipeline.record(Kind.APPLY, f);
+    }
+
+    /**
+     * Record duplicating the <b>reference</b> to the top value of the stack.
+     *
+     * @param pipeline
+     *            a pipeline producing a stack with at least one value.
+     * @return a pipeline producing a stack where the top two values are the same object.
+     * @see HStack#dup(Result)
+     */
+    public static <In extends HStack<In>, T, U extends HStack<U>> Pipeline<In, Result<T, Result<T, U>>> dup(Pipeline<In, Result<T, U>> pipeline) {
+        return pipeline.record(Kind.DUP, null);
+    }
+
+    /**
+     * Record folding the top value into the second value of the stack.
+     *
+     * @param pipeline
+     *            a pipeline producing a stack with at least two values.
+     * @param f
+     *            a function that folds the top two values into a new value.
+     * @return a pipeline producing a stack with the top two values replaced with the result of the function.
+     * @see HStack#fold(Result, BiFunction)
+     */
+    public static <In extends HStack<In>, R, T, U, V extends HStack<V>> Pipeline<In, Result<R, V>> fold(Pipeline<In, Result<T, Result<U, V>>> pipeline, BiFunction<T, U, R> f) {
+        return pipeline.record(Kind.FOLD, f);
+    }
+
+    /**
+     * Record discarding the top value of the stack.
+     *
+     * @param pipeline
+     *            a pipeline producing a stack with at least one value.
+     * @return a pipeline producing the rest of the stack.
+     * @see HStack#pop(Result)
+     */
+    public static <In extends HStack<In>, T, U extends HStack<U>> Pipeline<In, U> pop(Pipeline<In, Result<T, U>> pipeline) {
+        return pipeline.record(Kind.POP, null);
+    }
+
+    /**
+     * Record swapping the top two values of the stack.
+     *
+     * @param pipeline
+     *            a pipeline producing a stack with at least two values.
+     * @return a pipeline producing a stack with the top two values swapped.
+     * @see HStack#swap(Result)
+     */
+    public static <In extends HStack<In>, T, U, V extends HStack<V>> Pipeline<In, Result<U, Result<T, V>>> swap(Pipeline<In, Result<T, Result<U, V>>> pipeline) {
+        return pipeline.record(Kind.SWAP, null);
+    }
+
+    /**
+     * Record pushing a value onto the stack. The same value is pushed on every run.
+     *
+     * @param value
+     *            to be added to top of the stack
+     * @return a pipeline producing a stack with the value on top.
+     */
+    public <T> Pipeline<In, Result<T, Out>> push(T value) {
+        return record(Kind.PUSH, value);
+    }
+
+    /**
+     * Continues the pipeline with one of the static operations so they can be chained, for example {@code pipeline.then(Pipeline::swap)}.
+     *
+     * @param step
+     *            the operation to record.
+     * @return the pipeline returned by the step.
+     */
+    public <P> P then(Function<? super Pipeline<In, Out>, P> step) {
+        return step.apply(this);
+    }
+
+    private <R extends HStack<R>> Pipeline<In, R> record(Kind kind, Object arg) {
+        return new Pipeline<>(this, new Op(kind, arg));
+    }
+
+    /**
+     * Runs the recorded operations on a stack.
+     *
+     * @param stack
+     *            the input stack.
+     * @return the result of applying all the operations in order.
+     */
+    @Override
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public Out apply(In stack) {
+        Program program = program();
+        Object[] slots = program.template.clone();
+        HStack<?> base = stack;
+        HStack<?> kept = null;
+        for (int i = program.consumed - 1; i >= 0; i--) {
+            if (i == program.kept - 1)
+                kept = base;
+            slots[i] = base.rawTop();
+            base = base.rest();
+        }
+        program.calls.accept(slots);
+        HStack result = program.kept == 0 ? base : kept;
+        for (int slot : program.outputs) {
+            result = HStack.push(result, slots[slot]);
+        }
+        return (Out) result;
+    }
+
+    private Program program() {
+        Program p = program;
+        if (p == null) {
+            p = new Program(optimize());
+            program = p;
+        }
+        return p;
+    }
+
+    private Op[] optimize() {
+        Deque<Op> recorded = new ArrayDeque<>();
+        for (Pipeline<In, ?> p = this; p.op != null; p = p.previous) {
+            recorded.addFirst(p.op);
+        }
+        Deque<Op> optimized = new ArrayDeque<>(recorded.size());
+        for (Op op : recorded) {
+            append(optimized, op);
+        }
+        return optimized.toArray(new Op[optimized.size()]);
+    }
+
+    /**
+     * Appends an operation to an already optimized program looking only at the last operation so any pair that cancels out can expose another pair that does.
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static void append(Deque<Op> ops, Op op) {
+        Op last = ops.peekLast();
+        if (last != null) {
+            switch (op.kind) {
+            case POP:
+                if (last.kind == Kind.PUSH || last.kind == Kind.DUP) {
+                    ops.removeLast();
+                    return;
+                }
+                break;
+            case SWAP:
+                if (last.kind == Kind.SWAP) {
+                    ops.removeLast();
+                    return;
+                }
+                break;
+            case APPLY:
+                if (last.kind == Kind.APPLY) {
+                    ops.removeLast();
+                    append(ops, new Op(Kind.APPLY, ((Function) last.arg).andThen((Function) op.arg)));
+                    return;
+                }
+                break;
+            case FOLD:
+                if (last.kind == Kind.DUP) {
+                    BiFunction f = (BiFunction) op.arg;
+                    ops.removeLast();
+                    append(ops, new Op(Kind.APPLY, (Function) x -> f.apply(x, x)));
+                    return;
+                }
+                break;
+            default:
+                break;
+            }
+        }
+        ops.addLast(op);
+    }
+
+    /**
+     * Lists the operations that will run after the peephole pass.
+     */
+    @Override
+    public String toString() {
+        StringJoiner joiner = new StringJoiner(", ", "[", "]");
+        for (Op op : program().ops) {
+            joiner.add(op.toString());
+        }
+        return joiner.toString();
+    }
+}
@@ -0,0 +1,396 @@
+package net.gibr.util.hstack;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Compiles the calls of a {@link Pipeline} program into a class of its own. Each user function is held in its own field and called from its own instructions, so the JIT profiles every call
+ * site of every program separately and can inline the function there, instead of every pipeline sharing one call site that soon sees too many different functions to inline any.
+ * <p>
+ * The class is written out directly as Java 8 bytecode and defined by a class loader of its own so it can be unloaded with its pipeline. It only refers to public JDK types, it implements
+ * {@link Consumer} of the slots array and reads each argument through a {@link Function} that unwraps a {@link Deferred} value. The calls are split into methods of
+ * {@link #CALLS_PER_METHOD} to keep each one small enough for the JIT to compile and inline.
+ * <p>
+ * Programs with more than {@link #MAX_CALLS} calls, or where defining classes isn't allowed or has been turned off with {@code -Dnet.gibr.util.hstack.Pipeline.generate=false}, run their
+ * calls in a loop through shared call sites instead.
+ */
+final class PipelineCompiler {
+    /** set to {@code false} to run every program through the shared call sites */
+    static final String GENERATE_PROPERTY = "net.gibr.util.hstack.Pipeline.generate";
+    static final int CALLS_PER_METHOD = 64;
+    /** most calls compiled into one class, well within the limits on the size of the constructor and the constant pool */
+    static final int MAX_CALLS = 2048;
+
+    private static final boolean GENERATE = !"false".equals(System.getProperty(GENERATE_PROPERTY));
+    private static final Function<Object, Object> UNWRAP = Deferred::value;
+    private static final AtomicInteger COUNT = new AtomicInteger();
+
+    private static final String OBJECT = "java/lang/Object";
+    private static final String FUNCTION = "java/util/function/Function";
+    private static final String BI_FUNCTION = "java/util/function/BiFunction";
+    private static final String APPLY = "(Ljava/lang/Object;)Ljava/lang/Object;";
+    private static final String BI_APPLY = "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;";
+    private static final String RUN = "([Ljava/lang/Object;)V";
+
+    private PipelineCompiler() {
+    }
+
+    /**
+     * Compiles the calls of a program, each one storing in slot {@code outs[i]} the result of calling {@code functions[i]} with slot {@code firsts[i]}, and slot {@code seconds[i]} too when it
+     * is a fold.
+     *
+     * @param functions
+     *            a {@link Function} or a {@link BiFunction} for each call in the order they run.
+     * @param outs
+     *            the slot each result is stored in.
+     * @param firsts
+     *            the slot of the only argument of an apply or the first of a fold.
+     * @param seconds
+     *            the slot of the second argument of a fold, negative for an apply.
+     * @return runs the calls on the slots of one run.
+     */
+    static Consumer<Object[]> compile(Object[] functions, int[] outs, int[] firsts, int[] seconds) {
+        if (functions.length == 0)
+            return slots -> {
+            };
+        if (GENERATE && functions.length <= MAX_CALLS) {
+            try {
+                return generate(functions, outs, firsts, seconds);
+            } catch (SecurityException e) {
+                // not allowed to create a class loader, fall back to the shared call sites
+            }
+        }
+        return new Shared(functions, outs, firsts, seconds);
+    }
+
+    /**
+     * The calls of a program that wasn't compiled, all of them made from the same two call sites.
+     */
+    private static final class Shared implements Consumer<Object[]> {
+        private final Object[] functions;
+        private final int[] outs;
+        private final int[] firsts;
+        private final int[] seconds;
+
+        Shared(Object[] functions, int[] outs, int[] firsts, int[] seconds) {
+            this.functions = functions;
+            this.outs = outs;
+            this.firsts = firsts;
+            this.seconds = seconds;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void accept(Object[] slots) {
+            for (int i = 0; i < functions.length; i++) {
+                Object first = Deferred.value(slots[firsts[i]]);
+                if (seconds[i] < 0)
+                    slots[outs[i]] = ((Function<Object, Object>) functions[i]).apply(first);
+                else
+                    slots[outs[i]] = ((BiFunction<Object, Object, Object>) functions[i]).apply(first, Deferred.value(slots[seconds[i]]));
+            }
+        }
+    }
+
+    /**
+     * Defines exactly one class so it can be unloaded as soon as the program that uses it is no longer reachable.
+     */
+    private static final class Loader extends ClassLoader {
+        Loader() {
+            super(PipelineCompiler.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Consumer<Object[]> generate(Object[] functions, int[] outs, int[] firsts, int[] seconds) {
+        String name = "net/gibr/util/hstack/PipelineProgram$" + COUNT.incrementAndGet();
+        byte[] bytes = new ClassWriter(name, seconds).write(outs, firsts, seconds);
+        try {
+            Class<?> type = new Loader().define(name.replace('/', '.'), bytes);
+            return (Consumer<Object[]>) type.getConstructor(Object[].class, Function.class).newInstance(functions, UNWRAP);
+        } catch (InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException e) {
+            throw new IllegalStateException("generated pipeline class " + name + " is broken", e);
+        }
+    }
+
+    /**
+     * Writes the class file of a compiled program:
+     *
+     * <pre>
+     * public final class PipelineProgram$n implements Consumer {
+     *     private final Function f0; private final BiFunction f1; ... private final Function u;
+     *     public PipelineProgram$n(Object[] functions, Function u) { f0 = (Function) functions[0]; ... this.u = u; }
+     *     public void accept(Object slots) { run0((Object[]) slots); run1((Object[]) slots); ... }
+     *     private void run0(Object[] s) { s[out0] = f0.apply(u.apply(s[first0])); s[out1] = f1.apply(u.apply(s[first1]), u.apply(s[second1])); ... }
+     * }
+     * </pre>
+     */
+    private static final class ClassWriter {
+        private static final int ACC_PUBLIC = 0x0001;
+        private static final int ACC_PRIVATE = 0x0002;
+        private static final int ACC_FINAL = 0x0010;
+        private static final int ACC_SUPER = 0x0020;
+
+        private static final int ICONST_0 = 0x03;
+        private static final int BIPUSH = 0x10;
+        private static final int SIPUSH = 0x11;
+        private static final int LDC_W = 0x13;
+        private static final int ALOAD_0 = 0x2a;
+        private static final int ALOAD_1 = 0x2b;
+        private static final int ALOAD_2 = 0x2c;
+        private static final int AALOAD = 0x32;
+        private static final int ASTORE_2 = 0x4d;
+        private static final int AASTORE = 0x53;
+        private static final int RETURN = 0xb1;
+        private static final int GETFIELD = 0xb4;
+        private static final int PUTFIELD = 0xb5;
+        private static final int INVOKESPECIAL = 0xb7;
+        private static final int INVOKEINTERFACE = 0xb9;
+        private static final int CHECKCAST = 0xc0;
+
+        private final String name;
+        /** for each call whether its function is a {@link BiFunction} */
+        private final boolean[] folds;
+        private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        private final DataOutputStream constants = new DataOutputStream(pool);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int count = 1;
+
+        ClassWriter(String name, int[] seconds) {
+            this.name = name;
+            this.folds = new boolean[seconds.length];
+            for (int i = 0; i < seconds.length; i++) {
+                folds[i] = seconds[i] >= 0;
+            }
+        }
+
+        byte[] write(int[] outs, int[] firsts, int[] seconds) {
+            try {
+                List<byte[]> methods = new ArrayList<>();
+                methods.add(constructor());
+                int chunks = (folds.length - 1) / CALLS_PER_METHOD + 1;
+                methods.add(accept(chunks));
+                for (int c = 0; c < chunks; c++) {
+                    methods.add(run(c, outs, firsts, seconds));
+                }
+
+                ByteArrayOutputStream fields = new ByteArrayOutputStream();
+                DataOutputStream fieldsOut = new DataOutputStream(fields);
+                for (int i = 0; i < folds.length; i++) {
+                    field(fieldsOut, "f" + i, descriptor(folds[i]));
+                }
+                field(fieldsOut, "u", "L" + FUNCTION + ";");
+                int thisClass = type(name);
+                int superClass = type(OBJECT);
+                int consumer = type("java/util/function/Consumer");
+
+                // every constant has been added by now so the pool is complete
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(0xCAFEBABE);
+                out.writeShort(0);
+                out.writeShort(52);
+                out.writeShort(count);
+                pool.writeTo(out);
+                out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+                out.writeShort(thisClass);
+                out.writeShort(superClass);
+                out.writeShort(1);
+                out.writeShort(consumer);
+                out.writeShort(folds.length + 1);
+                fields.writeTo(out);
+                out.writeShort(methods.size());
+                for (byte[] method : methods) {
+                    out.write(method);
+                }
+                out.writeShort(0);
+                return bytes.toByteArray();
+            } catch (IOException e) {
+                throw new AssertionError("ByteArrayOutputStream doesn't throw", e);
+            }
+        }
+
+        private static String descriptor(boolean fold) {
+            return "L" + (fold ? BI_FUNCTION : FUNCTION) + ";";
+        }
+
+        private void field(DataOutputStream out, String field, String descriptor) throws IOException {
+            out.writeShort(ACC_PRIVATE | ACC_FINAL);
+            out.writeShort(utf8(field));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0);
+        }
+
+        private byte[] constructor() throws IOException {
+            Code code = new Code();
+            code.op(ALOAD_0).op(INVOKESPECIAL).u2(member(10, OBJECT, "<init>", "()V"));
+            for (int i = 0; i < folds.length; i++) {
+                code.op(ALOAD_0).op(ALOAD_1).push(i).op(AALOAD).op(CHECKCAST).u2(type(folds[i] ? BI_FUNCTION : FUNCTION));
+                code.op(PUTFIELD).u2(member(9, name, "f" + i, descriptor(folds[i])));
+            }
+            code.op(ALOAD_0).op(ALOAD_2).op(PUTFIELD).u2(member(9, name, "u", "L" + FUNCTION + ";"));
+            code.op(RETURN);
+            return method(ACC_PUBLIC, "<init>", "([Ljava/lang/Object;L" + FUNCTION + ";)V", code, 4, 3);
+        }
+
+        private byte[] accept(int chunks) throws IOException {
+            Code code = new Code();
+            code.op(ALOAD_1).op(CHECKCAST).u2(type("[Ljava/lang/Object;")).op(ASTORE_2);
+            for (int c = 0; c < chunks; c++) {
+                code.op(ALOAD_0).op(ALOAD_2).op(INVOKESPECIAL).u2(member(10, name, "run" + c, RUN));
+            }
+            code.op(RETURN);
+            return method(ACC_PUBLIC, "accept", "(Ljava/lang/Object;)V", code, 2, 3);
+        }
+
+        private byte[] run(int chunk, int[] outs, int[] firsts, int[] seconds) throws IOException {
+            Code code = new Code();
+            int apply = member(11, FUNCTION, "apply", APPLY);
+            for (int i = chunk * CALLS_PER_METHOD, end = Math.min(folds.length, i + CALLS_PER_METHOD); i < end; i++) {
+                code.op(ALOAD_1).push(outs[i]);
+                code.op(ALOAD_0).op(GETFIELD).u2(member(9, name, "f" + i, descriptor(folds[i])));
+                unwrap(code, firsts[i], apply);
+                if (folds[i]) {
+                    unwrap(code, seconds[i], apply);
+                    code.op(INVOKEINTERFACE).u2(member(11, BI_FUNCTION, "apply", BI_APPLY)).u1(3).u1(0);
+                } else {
+                    code.op(INVOKEINTERFACE).u2(apply).u1(2).u1(0);
+                }
+                code.op(AASTORE);
+            }
+            code.op(RETURN);
+            return method(ACC_PRIVATE | ACC_FINAL, "run" + chunk, RUN, code, 8, 2);
+        }
+
+        /** pushes {@code u.apply(s[slot])} */
+        private void unwrap(Code code, int slot, int apply) throws IOException {
+            code.op(ALOAD_0).op(GETFIELD).u2(member(9, name, "u", "L" + FUNCTION + ";"));
+            code.op(ALOAD_1).push(slot).op(AALOAD);
+            code.op(INVOKEINTERFACE).u2(apply).u1(2).u1(0);
+        }
+
+        private byte[] method(int access, String method, String descriptor, Code code, int maxStack, int maxLocals) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeShort(access);
+            out.writeShort(utf8(method));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(1);
+            out.writeShort(utf8("Code"));
+            byte[] instructions = code.bytes.toByteArray();
+            out.writeInt(12 + instructions.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(instructions.length);
+            out.write(instructions);
+            out.writeShort(0);
+            out.writeShort(0);
+            return bytes.toByteArray();
+        }
+
+        /** the instructions of one method */
+        private final class Code {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+            Code op(int opcode) {
+                bytes.write(opcode);
+                return this;
+            }
+
+            Code u1(int value) {
+                bytes.write(value);
+                return this;
+            }
+
+            Code u2(int value) {
+                bytes.write(value >>> 8);
+                bytes.write(value);
+                return this;
+            }
+
+            Code push(int value) throws IOException {
+                if (value <= 5)
+                    return op(ICONST_0 + value);
+                if (value <= Byte.MAX_VALUE)
+                    return op(BIPUSH).u1(value);
+                if (value <= Short.MAX_VALUE)
+                    return op(SIPUSH).u2(value);
+                return op(LDC_W).u2(integer(value));
+            }
+        }
+
+        private int utf8(String value) throws IOException {
+            Integer index = entries.get("U" + value);
+            if (index != null)
+                return index;
+            constants.writeByte(1);
+            constants.writeUTF(value);
+            return add("U" + value);
+        }
+
+        private int integer(int value) throws IOException {
+            Integer index = entries.get("I" + value);
+            if (index != null)
+                return index;
+            constants.writeByte(3);
+            constants.writeInt(value);
+            return add("I" + value);
+        }
+
+        private int type(String type) throws IOException {
+            Integer index = entries.get("C" + type);
+            if (index != null)
+                return index;
+            int utf8 = utf8(type);
+            constants.writeByte(7);
+            constants.writeShort(utf8);
+            return add("C" + type);
+        }
+
+        /** a field (9), method (10) or interface method (11) reference */
+        private int member(int tag, String owner, String member, String descriptor) throws IOException {
+            String key = tag + owner + "." + member + descriptor;
+            Integer index = entries.get(key);
+            if (index != null)
+                return index;
+            int type = type(owner);
+            int nameAndType = nameAndType(member, descriptor);
+            constants.writeByte(tag);
+            constants.writeShort(type);
+            constants.writeShort(nameAndType);
+            return add(key);
+        }
+
+        private int nameAndType(String member, String descriptor) throws IOException {
+            String key = "N" + member + ":" + descriptor;
+            Integer index = entries.get(key);
+            if (index != null)
+                return index;
+            int utf8 = utf8(member);
+            int type = utf8(descriptor);
+            constants.writeByte(12);
+            constants.writeShort(utf8);
+            constants.writeShort(type);
+            return add(key);
+        }
+
+        private int add(String key) {
+            entries.put(key, count);
+            return count++;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package net.gibr.util.hstack;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import net.gibr.util.hstack.HStack.Bottom;
+import net.gibr.util.hstack.HStack.DoubleResult;
+import net.gibr.util.hstack.HStack.IntResult;
+import net.gibr.util.hstack.HStack.LongResult;
+import net.gibr.util.hstack.HStack.Result;
+
+/**
+ * Stands in for a non empty {@link HStack} in an object stream. Instead of the default nested graph of nodes it writes the depth followed by each value from the bottom up in a flat loop so the
+ * size of the stream and the depth of the Java stack while reading and writing don't depend on the structure of the stack.
+ * <p>
+ * Each value is written as a tag byte followed by the value itself. The tag records the kind of node so an {@link IntResult} comes back as an {@link IntResult} and not as a {@link Result}
+ * holding an {@link Integer}. {@link String}s, the boxed primitives and {@code byte[]} have a compact encoding and everything else falls back to
+ * {@link ObjectOutputStream#writeObject(Object)}. Since the compact encodings don't go through the object stream's handle table any sharing of those values between slots is lost.
+ * <p>
+ * The nodes refuse to be read from a stream themselves so a stream holding nodes directly, whether written by an older version or crafted by hand, can't build a stack whose depth doesn't match
+ * its values.
+ */
+final class SerializationProxy implements Serializable {
+    private static final long serialVersionUID = 3391624950727134520L;
+
+    /** longest {@link String} guaranteed to fit in the 64k bytes of {@link ObjectOutputStream#writeUTF(String)} */
+    private static final int MAX_UTF_LENGTH = 0xFFFF / 3;
+
+    private static final byte OBJECT = 0;
+    private static final byte NULL = 1;
+    private static final byte STRING = 2;
+    private static final byte BYTES = 3;
+    private static final byte TRUE = 4;
+    private static final byte FALSE = 5;
+    private static final byte BYTE = 6;
+    private static final byte SHORT = 7;
+    private static final byte CHAR = 8;
+    private static final byte INTEGER = 9;
+    private static final byte LONG = 10;
+    private static final byte FLOAT = 11;
+    private static final byte DOUBLE = 12;
+    private static final byte UNBOXED_INT = 13;
+    private static final byte UNBOXED_LONG = 14;
+    private static final byte UNBOXED_DOUBLE = 15;
+
+    private transient HStack<?> stack;
+
+    SerializationProxy(HStack<?> stack) {
+        this.stack = stack;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        int depth = stack.size();
+        HStack<?>[] nodes = new HStack<?>[depth];
+        HStack<?> node = stack;
+        for (int i = 0; i < depth; i++) {
+            nodes[i] = node;
+            node = node.rest();
+        }
+        out.writeInt(depth);
+        for (int i = depth - 1; i >= 0; i--) {
+            write(out, nodes[i]);
+        }
+    }
+
+    private static void write(ObjectOutputStream out, HStack<?> node) throws IOException {
+        if (node instanceof IntResult) {
+            out.writeByte(UNBOXED_INT);
+            out.writeInt(HStack.peekInt((IntResult<?>) node));
+            return;
+        }
+        if (node instanceof LongResult) {
+            out.writeByte(UNBOXED_LONG);
+            out.writeLong(HStack.peekLong((LongResult<?>) node));
+            return;
+        }
+        if (node instanceof DoubleResult) {
+            out.writeByte(UNBOXED_DOUBLE);
+            out.writeDouble(HStack.peekDouble((DoubleResult<?>) node));
+            return;
+        }
+        Object value = node.top();
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String && ((String) value).length() <= MAX_UTF_LENGTH) {
+            out.writeByte(STRING);
+            out.writeUTF((String) value);
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            out.writeByte(BYTES);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Character) {
+            out.writeByte(CHAR);
+            out.writeChar((Character) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else {
+            out.writeByte(OBJECT);
+            out.writeObject(value);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int depth = in.readInt();
+        if (depth < 0)
+            throw new InvalidObjectException("negative depth " + depth);
+        HStack<?> node = HStack.create();
+        for (int i = 0; i < depth; i++) {
+            node = read(in, node);
+        }
+        stack = node;
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static HStack<?> read(ObjectInputStream in, HStack rest) throws IOException, ClassNotFoundException {
+        byte tag = in.readByte();
+        switch (tag) {
+        case UNBOXED_INT:
+            return HStack.pushInt(rest, in.readInt());
+        case UNBOXED_LONG:
+            return HStack.pushLong(rest, in.readLong());
+        case UNBOXED_DOUBLE:
+            return HStack.pushDouble(rest, in.readDouble());
+        case NULL:
+            return HStack.push(rest, null);
+        case STRING:
+            return HStack.push(rest, in.readUTF());
+        case BYTES:
+            int length = in.readInt();
+            if (length < 0)
+                throw new InvalidObjectException("negative length " + length);
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return HStack.push(rest, bytes);
+        case TRUE:
+            return HStack.push(rest, Boolean.TRUE);
+        case FALSE:
+            return HStack.push(rest, Boolean.FALSE);
+        case BYTE:
+            return HStack.push(rest, in.readByte());
+        case SHORT:
+            return HStack.push(rest, in.readShort());
+        case CHAR:
+            return HStack.push(rest, in.readChar());
+        case INTEGER:
+            return HStack.push(rest, in.readInt());
+        case LONG:
+            return HStack.push(rest, in.readLong());
+        case FLOAT:
+            return HStack.push(rest, in.readFloat());
+        case DOUBLE:
+            return HStack.push(rest, in.readDouble());
+        case OBJECT:
+            return HStack.push(rest, in.readObject());
+        default:
+            throw new InvalidObjectException("unknown value tag " + tag);
+        }
+    }
+
+    /**
+     * Swaps this proxy back for the stack it read. An empty stack resolves to the {@link Bottom} singleton.
+     */
+    private Object readResolve() {
+        return stack;
+    }
+}
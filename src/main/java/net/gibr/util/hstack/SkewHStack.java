@@ -0,0 +1,369 @@
+package net.gibr.util.hstack;
+
+import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import net.gibr.util.hstack.HStack.Bottom;
+import net.gibr.util.hstack.HStack.Result;
+
+/**
+ * An immutable stack held as a skew-binary random-access list, a list of complete binary trees of sizes {@code 2^k - 1} where only the two smallest trees can be the same size. Push, pop and
+ * peek are constant time like the linked stack but a value n from the top can be read with {@link #peekAt(int)} or replaced with {@link #applyAt(int, Function)} in {@code O(log n)} instead of
+ * walking n {@link Result}s. It has the same type as the linked stack it can be converted to with {@link #toHStack()} and the same operations.
+ * <p>
+ * Each instance is one link in the list of trees, holding the tree and its size as well as the rest of the list, and the values in a tree are in pre-order so the root is the top of the stack.
+ * <p>
+ * Only stacks of boxed values are supported, the unboxed nodes must be {@code boxed()} before they can be converted.
+ *
+ * @param <X>
+ *            the type of the equivalent linked stack.
+ */
+public final class SkewHStack<X extends HStack<X>> {
+    /**
+     * A complete binary tree holding a value in every node, leaves have no children.
+     */
+    private static final class Tree {
+        final Object value;
+        final Tree left;
+        final Tree right;
+
+        Tree(Object value, Tree left, Tree right) {
+            this.value = value;
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    private static final SkewHStack<Bottom> EMPTY = new SkewHStack<>(0, null, null, 0);
+
+    /** the number of values in the tree */
+    private final int weight;
+    /** null for an empty stack */
+    private final Tree tree;
+    private final SkewHStack<?> next;
+    private final int size;
+
+    private SkewHStack(int weight, Tree tree, SkewHStack<?> next, int size) {
+        this.weight = weight;
+        this.tree = tree;
+        this.next = next;
+        this.size = size;
+    }
+
+    /**
+     * Start an empty stack.
+     *
+     * @return an empty stack that be used to build on.
+     */
+    public static SkewHStack<Bottom> create() {
+        return EMPTY;
+    }
+
+    /**
+     * Copies a linked stack into a list of trees.
+     *
+     * @param stack
+     *            a stack of boxed values.
+     * @return a skew-binary list with the same values.
+     * @throws IllegalArgumentException
+     *             if the stack has an unboxed value.
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public static <X extends HStack<X>> SkewHStack<X> from(X stack) {
+        SkewHStack s = EMPTY;
+        for (Object value : HStack.toArray(stack)) {
+            s = s.push(value);
+        }
+        return s;
+    }
+
+    /**
+     * Converts back to the linked form of the stack.
+     *
+     * @return a chain of {@link Result}s with the same values.
+     */
+    @SuppressWarnings("unchecked")
+    public X toHStack() {
+        return (X) HStack.fromArray(toArray(), 0, size);
+    }
+
+    /** the values with the bottom first */
+    private Object[] toArray() {
+        Object[] values = new Object[size];
+        int end = size;
+        for (SkewHStack<?> s = this; s.tree != null; s = s.next) {
+            end -= s.weight;
+            fill(s.tree, s.weight, values, end + s.weight - 1);
+        }
+        return values;
+    }
+
+    /** writes the values of the tree backwards from {@code top} */
+    private static void fill(Tree tree, int weight, Object[] values, int top) {
+        values[top] = tree.value;
+        if (weight > 1) {
+            int half = weight >>> 1;
+            fill(tree.left, half, values, top - 1);
+            fill(tree.right, half, values, top - 1 - half);
+        }
+    }
+
+    /**
+     * Apply a mapping function to the top value of the stack.
+     *
+     * @param stack
+     *            a stack with of type T on top.
+     * @param f
+     *            a function that maps a of type T to a of type R.
+     * @return a stack with a of type R on top.
+     */
+    public static <R, T, U extends HStack<U>> SkewHStack<Result<R, U>> apply(SkewHStack<Result<T, U>> stack, Function<T, R> f) {
+        return pop(stack).push(f.apply(peek(stack)));
+    }
+
+    /**
+     * Duplicates the <b>reference</b> to the top value of the stack.
+     *
+     * @param stack
+     *            a stack with at least one value.
+     * @return a stack where the top two values are the same object.
+     */
+    public static <T, U extends HStack<U>> SkewHStack<Result<T, Result<T, U>>> dup(SkewHStack<Result<T, U>> stack) {
+        return stack.push(peek(stack));
+    }
+
+    /**
+     * Applies a function to fold the top value into the second value of the stack.
+     *
+     * @param stack
+     *            the stack to apply the function to.
+     * @param f
+     *            a function that folds the top two values into a new value.
+     * @return a new stack with the top two values replaced with the result of the function.
+     */
+    public static <R, T, U, V extends HStack<V>> SkewHStack<Result<R, V>> fold(SkewHStack<Result<T, Result<U, V>>> stack, BiFunction<T, U, R> f) {
+        SkewHStack<Result<U, V>> rest = pop(stack);
+        return pop(rest).push(f.apply(peek(stack), peek(rest)));
+    }
+
+    /**
+     * Access to the top value in the stack without affecting the structure of the stack.
+     *
+     * @param stack
+     *            a stack with at least one value
+     * @return the top value of the stack.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T, U extends HStack<U>> T peek(SkewHStack<Result<T, U>> stack) {
+        return (T) stack.tree.value;
+    }
+
+    /**
+     * Discards the top value of the stack.
+     *
+     * @param stack
+     *            a stack of at least one value.
+     * @return the rest of the stack.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T, U extends HStack<U>> SkewHStack<U> pop(SkewHStack<Result<T, U>> stack) {
+        if (stack.weight == 1)
+            return (SkewHStack<U>) stack.next;
+        // splits the tree into its two children
+        int half = stack.weight >>> 1;
+        SkewHStack<?> right = new SkewHStack<>(half, stack.tree.right, stack.next, stack.next.size + half);
+        return new SkewHStack<>(half, stack.tree.left, right, stack.size - 1);
+    }
+
+    /**
+     * Swaps the top two values of the stack.
+     *
+     * @param stack
+     *            the stack to swap values on
+     * @return a stack with the top two values swapped.
+     */
+    public static <T, U, V extends HStack<V>> SkewHStack<Result<U, Result<T, V>>> swap(SkewHStack<Result<T, Result<U, V>>> stack) {
+        SkewHStack<Result<U, V>> rest = pop(stack);
+        return pop(rest).push(peek(stack)).push(peek(rest));
+    }
+
+    /**
+     * Push a new value onto the stack.
+     *
+     * @param value
+     *            to be added to top of the stack
+     * @return a new stack with the value on top.
+     */
+    public <T> SkewHStack<Result<T, X>> push(T value) {
+        SkewHStack<?> second = next;
+        if (second != null && second.tree != null && weight == second.weight)
+            // links the two smallest trees under the new value
+            return new SkewHStack<>(2 * weight + 1, new Tree(value, tree, second.tree), second.next, size + 1);
+        return new SkewHStack<>(1, new Tree(value, null, null), this, size + 1);
+    }
+
+    /**
+     * Reads a value from anywhere in the stack in {@code O(log n)}.
+     *
+     * @param n
+     *            how far down the stack the value is, zero being the top.
+     * @return the value n from the top.
+     * @throws IndexOutOfBoundsException
+     *             if n is negative or not less than the size of the stack.
+     */
+    public Object peekAt(int n) {
+        checkIndex(n);
+        SkewHStack<?> s = this;
+        while (n >= s.weight) {
+            n -= s.weight;
+            s = s.next;
+        }
+        Tree t = s.tree;
+        for (int weight = s.weight; n > 0; weight >>>= 1) {
+            int half = weight >>> 1;
+            if (n <= half) {
+                t = t.left;
+                n -= 1;
+            } else {
+                t = t.right;
+                n -= 1 + half;
+            }
+        }
+        return t.value;
+    }
+
+    /**
+     * Applies a function to a value anywhere in the stack copying only the {@code O(log n)} links and tree nodes on the way to it. The type of the stack can't say what type the value n from the
+     * top has so it is up to the caller to return one of the same type.
+     *
+     * @param n
+     *            how far down the stack the value is, zero being the top.
+     * @param f
+     *            maps the value n from the top to its replacement of the same type.
+     * @return a stack with the value n from the top replaced.
+     * @throws IndexOutOfBoundsException
+     *             if n is negative or not less than the size of the stack.
+     */
+    public SkewHStack<X> applyAt(int n, Function<Object, ?> f) {
+        checkIndex(n);
+        return applyAt(this, n, f);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <Y extends HStack<Y>> SkewHStack<Y> applyAt(SkewHStack<?> s, int n, Function<Object, ?> f) {
+        if (n >= s.weight)
+            return new SkewHStack<>(s.weight, s.tree, applyAt(s.next, n - s.weight, f), s.size);
+        return new SkewHStack<>(s.weight, applyAt(s.tree, s.weight, n, f), s.next, s.size);
+    }
+
+    private static Tree applyAt(Tree t, int weight, int n, Function<Object, ?> f) {
+        if (n == 0)
+            return new Tree(f.apply(t.value), t.left, t.right);
+        int half = weight >>> 1;
+        if (n <= half)
+            return new Tree(t.value, applyAt(t.left, half, n - 1, f), t.right);
+        return new Tree(t.value, t.left, applyAt(t.right, half, n - 1 - half, f));
+    }
+
+    private void checkIndex(int n) {
+        if (n < 0 || n >= size)
+            throw new IndexOutOfBoundsException("index " + n + " of stack of size " + size);
+    }
+
+    /**
+     * The number of values in the stack.
+     *
+     * @return zero for an empty stack.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Folds the values of the stack starting from the top.
+     *
+     * @see HStack#foldL(Object, Function, BiFunction)
+     */
+    public <V, R> R foldL(R seed, Function<? super Object, V> map, BiFunction<R, V, R> fold) {
+        R acc = seed;
+        for (SkewHStack<?> s = this; s.tree != null; s = s.next) {
+            acc = foldL(s.tree, acc, map, fold);
+        }
+        return acc;
+    }
+
+    private static <V, R> R foldL(Tree t, R acc, Function<? super Object, V> map, BiFunction<R, V, R> fold) {
+        acc = fold.apply(acc, map.apply(t.value));
+        if (t.left == null)
+            return acc;
+        return foldL(t.right, foldL(t.left, acc, map, fold), map, fold);
+    }
+
+    /**
+     * Folds the values of the stack starting from the bottom.
+     *
+     * @see HStack#foldR(Object, Function, BiFunction)
+     */
+    public <V, R> R foldR(R seed, Function<? super Object, V> map, BiFunction<R, V, R> fold) {
+        R acc = seed;
+        for (Object value : toArray()) {
+            acc = fold.apply(acc, map.apply(value));
+        }
+        return acc;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof SkewHStack))
+            return false;
+        SkewHStack<?> that = (SkewHStack<?>) obj;
+        if (this.size != that.size)
+            return false;
+        // the sizes of the trees are the unique skew-binary digits of the size so the trees line up
+        for (SkewHStack<?> a = this, b = that; a.tree != null; a = a.next, b = b.next) {
+            if (a == b)
+                return true;
+            if (!treesEqual(a.tree, b.tree))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean treesEqual(Tree a, Tree b) {
+        if (a == b)
+            return true;
+        if (!Objects.equals(a.value, b.value))
+            return false;
+        return a.left == null || treesEqual(a.left, b.left) && treesEqual(a.right, b.right);
+    }
+
+    /**
+     * The same hash as the linked form of the stack.
+     */
+    @Override
+    public int hashCode() {
+        int hash = HStack.create().hashCode();
+        for (Object value : toArray()) {
+            hash = hash * 31 + Objects.hashCode(value);
+        }
+        return hash;
+    }
+
+    /**
+     * The same format as {@link HStack#toString()}.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(2 + 8 * size).append('[');
+        Object[] values = toArray();
+        for (int i = values.length - 1; i >= 0; i--) {
+            if (i < values.length - 1)
+                builder.append(", ");
+            builder.append(values[i]);
+        }
+        return builder.append(']').toString();
+    }
+}
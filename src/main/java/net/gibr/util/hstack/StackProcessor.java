@@ -0,0 +1,210 @@
+package net.gibr.util.hstack;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Applies the same stack function, such as a {@link Pipeline}, to a stream of stacks on an executor and hands each result to a sink. At most {@code capacity} stacks are waiting or being
+ * processed at once so memory stays bounded, {@link #submit(HStack)} blocks and {@link #offer(HStack)} fails while it is full, which pushes back on whatever is producing the stacks.
+ * <p>
+ * Up to {@code parallelism} tasks drain the queue, each taking up to {@code batchSize} stacks at a time before handing its thread back to the executor, so the cost of scheduling is shared by
+ * a batch while no one task holds a thread for long. Results of the same batch reach the sink in the order they were submitted but different batches can overlap so the sink must be safe to
+ * call from many threads.
+ * <p>
+ * The first exception thrown by the function or the sink, or the executor rejecting a task, stops the processor, the stacks still queued are dropped, further submissions are refused and {@link #close()} throws it.
+ *
+ * @param <X>
+ *            type of the incoming stacks.
+ * @param <Y>
+ *            type of the stacks passed to the sink.
+ */
+public final class StackProcessor<X extends HStack<X>, Y extends HStack<Y>> implements AutoCloseable {
+    private final Function<? super X, ? extends Y> f;
+    private final Consumer<? super Y> sink;
+    private final Executor executor;
+    private final int parallelism;
+    private final int batchSize;
+    private final int capacity;
+
+    private final ConcurrentLinkedQueue<X> queue = new ConcurrentLinkedQueue<>();
+    /** one permit for every stack that can still be submitted */
+    private final Semaphore permits;
+    private final AtomicInteger workers = new AtomicInteger();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private volatile boolean closed;
+
+    /**
+     * @param f
+     *            applied to every stack.
+     * @param sink
+     *            receives every result, called from the executor's threads.
+     * @param executor
+     *            runs the tasks draining the queue.
+     * @param parallelism
+     *            the most tasks draining the queue at once.
+     * @param batchSize
+     *            the most stacks a task processes before handing its thread back.
+     * @param capacity
+     *            the most stacks waiting or being processed at once.
+     * @throws IllegalArgumentException
+     *             if any of the sizes aren't positive.
+     */
+    public StackProcessor(Function<? super X, ? extends Y> f, Consumer<? super Y> sink, Executor executor, int parallelism, int batchSize, int capacity) {
+        if (parallelism <= 0 || batchSize <= 0 || capacity <= 0)
+            throw new IllegalArgumentException("parallelism, batch size and capacity must be positive: " + parallelism + ", " + batchSize + ", " + capacity);
+        this.f = f;
+        this.sink = sink;
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.batchSize = batchSize;
+        this.capacity = capacity;
+        this.permits = new Semaphore(capacity);
+    }
+
+    /**
+     * Queues a stack, waiting for room if the processor is full.
+     *
+     * @param stack
+     *            to be processed.
+     * @throws InterruptedException
+     *             if interrupted while waiting for room.
+     * @throws IllegalStateException
+     *             if the processor has been closed or has failed.
+     */
+    public void submit(X stack) throws InterruptedException {
+        checkOpen();
+        permits.acquire();
+        enqueue(stack);
+    }
+
+    /**
+     * Queues a stack if there is room.
+     *
+     * @param stack
+     *            to be processed.
+     * @return false if the processor is full.
+     * @throws IllegalStateException
+     *             if the processor has been closed or has failed.
+     */
+    public boolean offer(X stack) {
+        checkOpen();
+        if (!permits.tryAcquire())
+            return false;
+        enqueue(stack);
+        return true;
+    }
+
+    private void checkOpen() {
+        Throwable t = failure.get();
+        if (t != null)
+            throw new IllegalStateException("processor failed", t);
+        if (closed)
+            throw new IllegalStateException("processor closed");
+    }
+
+    /** queues a stack whose permit has been taken, unless the processor was closed or failed while taking it */
+    private void enqueue(X stack) {
+        try {
+            // close() may have waited for every permit and returned between the first check and taking the permit
+            checkOpen();
+        } catch (IllegalStateException e) {
+            permits.release();
+            throw e;
+        }
+        queue.add(stack);
+        schedule();
+    }
+
+    /** starts another task if there are fewer than allowed */
+    private void schedule() {
+        while (true) {
+            int running = workers.get();
+            if (running >= parallelism)
+                return;
+            if (workers.compareAndSet(running, running + 1)) {
+                start();
+                return;
+            }
+        }
+    }
+
+    /** hands a task already counted in {@link #workers} to the executor */
+    private void start() {
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            workers.decrementAndGet();
+            failure.compareAndSet(null, e);
+            // a stack queued before the decrement could have seen every task still running so nothing else may take it
+            discard();
+        }
+    }
+
+    /** drops the queued stacks giving back their permits */
+    private void discard() {
+        while (queue.poll() != null) {
+            permits.release();
+        }
+    }
+
+    private void drain() {
+        try {
+            X stack;
+            for (int i = 0; i < batchSize && (stack = queue.poll()) != null; i++) {
+                process(stack);
+            }
+        } finally {
+            if (!queue.isEmpty()) {
+                start();
+            } else {
+                workers.decrementAndGet();
+                // a stack queued after the poll above could have seen every task still running
+                if (!queue.isEmpty())
+                    schedule();
+            }
+        }
+    }
+
+    private void process(X stack) {
+        try {
+            if (failure.get() == null)
+                sink.accept(f.apply(stack));
+        } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * The number of stacks waiting or being processed.
+     *
+     * @return between zero and the capacity.
+     */
+    public int pending() {
+        return capacity - permits.availablePermits();
+    }
+
+    /**
+     * Stops accepting stacks and waits, uninterruptibly, for the ones already submitted to be processed.
+     *
+     * @throws ExecutionException
+     *             wrapping the first exception thrown by the function or the sink.
+     */
+    @Override
+    public void close() throws ExecutionException {
+        closed = true;
+        permits.acquireUninterruptibly(capacity);
+        permits.release(capacity);
+        Throwable t = failure.get();
+        if (t != null)
+            throw new ExecutionException(t);
+    }
+}
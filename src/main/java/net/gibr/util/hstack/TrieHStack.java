@@ -0,0 +1,428 @@
+package net.gibr.util.hstack;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import net.gibr.util.hstack.HStack.Bottom;
+import net.gibr.util.hstack.HStack.Result;
+
+/**
+ * An immutable stack held in a persistent 32-way trie with a tail, so a value anywhere in the stack can be read or replaced by copying only the {@code log32(n)} nodes on its path rather than
+ * every {@link Result} above it. It has the same type as the linked stack it can be converted to with {@link #toHStack()} and the same operations.
+ * <p>
+ * The bottom value of the stack is the first in the trie and the values on top are kept in a tail array of up to 32 values that is moved into the trie when it is full, so a push or pop only
+ * copies the tail most of the time and a path through the trie every 32nd time.
+ * <p>
+ * Only stacks of boxed values are supported, the unboxed nodes must be {@code boxed()} before they can be converted.
+ *
+ * @param <X>
+ *            the type of the equivalent linked stack.
+ */
+public final class TrieHStack<X extends HStack<X>> {
+    private static final int BITS = 5;
+    static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    private static final Object[] EMPTY_NODE = new Object[WIDTH];
+    private static final TrieHStack<Bottom> EMPTY = new TrieHStack<>(0, BITS, EMPTY_NODE, new Object[0]);
+
+    private final int size;
+    /** how far to shift an index to find its slot in the root */
+    private final int shift;
+    private final Object[] root;
+    /** the values on top of the stack that are not in the trie yet with the deepest first */
+    private final Object[] tail;
+
+    private TrieHStack(int size, int shift, Object[] root, Object[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    /**
+     * Start an empty stack.
+     *
+     * @return an empty stack that be used to build on.
+     */
+    public static TrieHStack<Bottom> create() {
+        return EMPTY;
+    }
+
+    /**
+     * Copies a linked stack into a trie.
+     *
+     * @param stack
+     *            a stack of boxed values.
+     * @return a trie with the same values.
+     * @throws IllegalArgumentException
+     *             if the stack has an unboxed value.
+     */
+    @SuppressWarnings("unchecked")
+    public static <X extends HStack<X>> TrieHStack<X> from(X stack) {
+        Object[] values = HStack.toArray(stack);
+        if (values.length == 0)
+            return (TrieHStack<X>) EMPTY;
+        int end = Math.min(WIDTH, values.length);
+        TrieHStack<X> trie = new TrieHStack<>(end, BITS, EMPTY_NODE, Arrays.copyOf(values, end));
+        for (int i = end; i < values.length; i = end) {
+            end = Math.min(i + WIDTH, values.length);
+            trie = trie.pushTail(Arrays.copyOfRange(values, i, end));
+        }
+        return trie;
+    }
+
+    /**
+     * Converts back to the linked form of the stack.
+     *
+     * @return a chain of {@link Result}s with the same values.
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public X toHStack() {
+        HStack stack = HStack.create();
+        for (int i = 0; i < size; i += WIDTH) {
+            Object[] leaf = leafFor(i);
+            for (int j = 0, n = Math.min(WIDTH, size - i); j < n; j++) {
+                stack = HStack.push(stack, leaf[j]);
+            }
+        }
+        return (X) stack;
+    }
+
+    /**
+     * Apply a mapping function to the top value of the stack.
+     *
+     * @param stack
+     *            a stack with of type T on top.
+     * @param f
+     *            a function that maps a of type T to a of type R.
+     * @return a stack with a of type R on top.
+     */
+    public static <R, T, U extends HStack<U>> TrieHStack<Result<R, U>> apply(TrieHStack<Result<T, U>> stack, Function<T, R> f) {
+        return stack.replace(stack.size - 1, f.apply(peek(stack)));
+    }
+
+    /**
+     * Duplicates the <b>reference</b> to the top value of the stack.
+     *
+     * @param stack
+     *            a stack with at least one value.
+     * @return a stack where the top two values are the same object.
+     */
+    public static <T, U extends HStack<U>> TrieHStack<Result<T, Result<T, U>>> dup(TrieHStack<Result<T, U>> stack) {
+        return stack.push(peek(stack));
+    }
+
+    /**
+     * Applies a function to fold the top value into the second value of the stack.
+     *
+     * @param stack
+     *            the stack to apply the function to.
+     * @param f
+     *            a function that folds the top two values into a new value.
+     * @return a new stack with the top two values replaced with the result of the function.
+     */
+    public static <R, T, U, V extends HStack<V>> TrieHStack<Result<R, V>> fold(TrieHStack<Result<T, Result<U, V>>> stack, BiFunction<T, U, R> f) {
+        TrieHStack<Result<U, V>> rest = pop(stack);
+        return rest.replace(rest.size - 1, f.apply(peek(stack), peek(rest)));
+    }
+
+    /**
+     * Access to the top value in the stack without affecting the structure of the stack.
+     *
+     * @param stack
+     *            a stack with at least one value
+     * @return the top value of the stack.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T, U extends HStack<U>> T peek(TrieHStack<Result<T, U>> stack) {
+        return (T) stack.tail[stack.tail.length - 1];
+    }
+
+    /**
+     * Discards the top value of the stack.
+     *
+     * @param stack
+     *            a stack of at least one value.
+     * @return the rest of the stack.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T, U extends HStack<U>> TrieHStack<U> pop(TrieHStack<Result<T, U>> stack) {
+        int size = stack.size;
+        if (size == 1)
+            return (TrieHStack<U>) EMPTY;
+        if (stack.tail.length > 1)
+            return new TrieHStack<>(size - 1, stack.shift, stack.root, Arrays.copyOf(stack.tail, stack.tail.length - 1));
+        Object[] tail = stack.leafFor(size - 2);
+        Object[] root = stack.popTail(stack.shift, stack.root);
+        int shift = stack.shift;
+        if (root == null) {
+            root = EMPTY_NODE;
+        } else if (shift > BITS && root[1] == null) {
+            root = (Object[]) root[0];
+            shift -= BITS;
+        }
+        return new TrieHStack<>(size - 1, shift, root, tail);
+    }
+
+    /**
+     * Swaps the top two values of the stack.
+     *
+     * @param stack
+     *            the stack to swap values on
+     * @return a stack with the top two values swapped.
+     */
+    public static <T, U, V extends HStack<V>> TrieHStack<Result<U, Result<T, V>>> swap(TrieHStack<Result<T, Result<U, V>>> stack) {
+        Object top = stack.get(0);
+        Object second = stack.get(1);
+        int n = stack.tail.length;
+        if (n > 1) {
+            Object[] tail = stack.tail.clone();
+            tail[n - 1] = second;
+            tail[n - 2] = top;
+            return new TrieHStack<>(stack.size, stack.shift, stack.root, tail);
+        }
+        return stack.<Result<U, Result<T, V>>> replace(stack.size - 1, second).replace(stack.size - 2, top);
+    }
+
+    /**
+     * Push a new value onto the stack.
+     *
+     * @param value
+     *            to be added to top of the stack
+     * @return a new stack with the value on top.
+     */
+    public <T> TrieHStack<Result<T, X>> push(T value) {
+        if (tail.length < WIDTH) {
+            Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = value;
+            return new TrieHStack<>(size + 1, shift, root, newTail);
+        }
+        return pushTail(new Object[] { value });
+    }
+
+    /**
+     * Reads a value from anywhere in the stack.
+     *
+     * @param n
+     *            how far down the stack the value is, zero being the top.
+     * @return the value n from the top.
+     * @throws IndexOutOfBoundsException
+     *             if n is negative or not less than the size of the stack.
+     */
+    public Object get(int n) {
+        int i = index(n);
+        return leafFor(i)[i & MASK];
+    }
+
+    /**
+     * Replaces a value anywhere in the stack copying only the path through the trie to it. The type of the stack can't say what type the value n from the top has so it is up to the caller to
+     * replace it with one of the same type.
+     *
+     * @param n
+     *            how far down the stack the value is, zero being the top.
+     * @param value
+     *            the replacement which must be of the same type as the current value.
+     * @return a stack with the value n from the top replaced.
+     * @throws IndexOutOfBoundsException
+     *             if n is negative or not less than the size of the stack.
+     */
+    public TrieHStack<X> set(int n, Object value) {
+        return replace(index(n), value);
+    }
+
+    /** the position in the trie of the value n from the top */
+    private int index(int n) {
+        if (n < 0 || n >= size)
+            throw new IndexOutOfBoundsException("index " + n + " of stack of size " + size);
+        return size - 1 - n;
+    }
+
+    /** the position in the trie of the first value in the tail */
+    private int tailOffset() {
+        return size - tail.length;
+    }
+
+    /** the leaf array holding the value at position i */
+    private Object[] leafFor(int i) {
+        if (i >= tailOffset())
+            return tail;
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(i >>> level) & MASK];
+        }
+        return node;
+    }
+
+    private <Y extends HStack<Y>> TrieHStack<Y> replace(int i, Object value) {
+        if (i >= tailOffset()) {
+            Object[] newTail = tail.clone();
+            newTail[i & MASK] = value;
+            return new TrieHStack<>(size, shift, root, newTail);
+        }
+        return new TrieHStack<>(size, shift, replace(shift, root, i, value), tail);
+    }
+
+    private static Object[] replace(int level, Object[] node, int i, Object value) {
+        Object[] copy = node.clone();
+        if (level == 0) {
+            copy[i & MASK] = value;
+        } else {
+            int slot = (i >>> level) & MASK;
+            copy[slot] = replace(level - BITS, (Object[]) node[slot], i, value);
+        }
+        return copy;
+    }
+
+    /** moves the full tail into the trie and starts a new tail */
+    private <Y extends HStack<Y>> TrieHStack<Y> pushTail(Object[] newTail) {
+        Object[] newRoot;
+        int newShift = shift;
+        if ((size >>> BITS) > (1 << shift)) {
+            // the trie is full so grows a level
+            newRoot = new Object[WIDTH];
+            newRoot[0] = root;
+            newRoot[1] = newPath(shift, tail);
+            newShift += BITS;
+        } else {
+            newRoot = pushTail(shift, root, tail);
+        }
+        return new TrieHStack<>(size + newTail.length, newShift, newRoot, newTail);
+    }
+
+    private Object[] pushTail(int level, Object[] parent, Object[] leaf) {
+        int slot = ((size - 1) >>> level) & MASK;
+        Object[] copy = parent.clone();
+        if (level == BITS) {
+            copy[slot] = leaf;
+        } else {
+            Object[] child = (Object[]) parent[slot];
+            copy[slot] = child == null ? newPath(level - BITS, leaf) : pushTail(level - BITS, child, leaf);
+        }
+        return copy;
+    }
+
+    private static Object[] newPath(int level, Object[] leaf) {
+        if (level == 0)
+            return leaf;
+        Object[] node = new Object[WIDTH];
+        node[0] = newPath(level - BITS, leaf);
+        return node;
+    }
+
+    /** the node without the last leaf in it or null if that leaves it empty */
+    private Object[] popTail(int level, Object[] node) {
+        int slot = ((size - 2) >>> level) & MASK;
+        if (level > BITS) {
+            Object[] child = popTail(level - BITS, (Object[]) node[slot]);
+            if (child == null && slot == 0)
+                return null;
+            Object[] copy = node.clone();
+            copy[slot] = child;
+            return copy;
+        }
+        if (slot == 0)
+            return null;
+        Object[] copy = node.clone();
+        copy[slot] = null;
+        return copy;
+    }
+
+    /**
+     * The number of values in the stack.
+     *
+     * @return zero for an empty stack.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Folds the values of the stack starting from the top.
+     *
+     * @see HStack#foldL(Object, Function, BiFunction)
+     */
+    public <V, R> R foldL(R seed, Function<? super Object, V> map, BiFunction<R, V, R> fold) {
+        R acc = seed;
+        for (int i = tailOffset(), end = size; end > 0; end = i, i -= WIDTH) {
+            Object[] leaf = leafFor(i);
+            for (int j = end - i - 1; j >= 0; j--) {
+                acc = fold.apply(acc, map.apply(leaf[j]));
+            }
+        }
+        return acc;
+    }
+
+    /**
+     * Folds the values of the stack starting from the bottom.
+     *
+     * @see HStack#foldR(Object, Function, BiFunction)
+     */
+    public <V, R> R foldR(R seed, Function<? super Object, V> map, BiFunction<R, V, R> fold) {
+        R acc = seed;
+        for (int i = 0; i < size; i += WIDTH) {
+            Object[] leaf = leafFor(i);
+            for (int j = 0, n = Math.min(WIDTH, size - i); j < n; j++) {
+                acc = fold.apply(acc, map.apply(leaf[j]));
+            }
+        }
+        return acc;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof TrieHStack))
+            return false;
+        TrieHStack<?> that = (TrieHStack<?>) obj;
+        if (this.size != that.size)
+            return false;
+        // both tries have the same shape so the leaves line up and shared ones can be skipped
+        for (int i = 0; i < size; i += WIDTH) {
+            Object[] a = this.leafFor(i);
+            Object[] b = that.leafFor(i);
+            if (a == b)
+                continue;
+            for (int j = 0, n = Math.min(WIDTH, size - i); j < n; j++) {
+                if (!Objects.equals(a[j], b[j]))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The same hash as the linked form of the stack.
+     */
+    @Override
+    public int hashCode() {
+        int hash = HStack.create().hashCode();
+        for (int i = 0; i < size; i += WIDTH) {
+            Object[] leaf = leafFor(i);
+            for (int j = 0, n = Math.min(WIDTH, size - i); j < n; j++) {
+                hash = hash * 31 + Objects.hashCode(leaf[j]);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * The same format as {@link HStack#toString()}.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(2 + 8 * size).append('[');
+        int written = 0;
+        for (int i = tailOffset(), end = size; end > 0; end = i, i -= WIDTH) {
+            Object[] leaf = leafFor(i);
+            for (int j = end - i - 1; j >= 0; j--) {
+                if (written++ > 0)
+                    builder.append(", ");
+                builder.append(leaf[j]);
+            }
+        }
+        return builder.append(']').toString();
+    }
+}
@@ -0,0 +1,79 @@
+package net.gibr.util.hstack;
+
+import static net.gibr.util.hstack.HStack.create;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import net.gibr.util.hstack.HStack.Bottom;
+import net.gibr.util.hstack.HStack.Result;
+
+public class ApplyEachTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testMapsEveryValue() throws Exception {
+        Result<String, Result<String, Result<String, Bottom>>> stack = create().push("c").push("b").push("a");
+        assertEquals(create().push("C").push("B").push("A"), HStack.applyEach(stack, v -> ((String) v).toUpperCase(), executor));
+        assertSame(create(), HStack.applyEach(create(), v -> v, executor));
+    }
+
+    @Test
+    public void testRunsConcurrently() throws Exception {
+        // every value waits for all the others so they only finish if they all run at the same time
+        CountDownLatch latch = new CountDownLatch(4);
+        Result<Integer, Result<Integer, Result<Integer, Result<Integer, Bottom>>>> stack = create().push(4).push(3).push(2).push(1);
+        assertEquals("[2, 4, 6, 8]", HStack.applyEach(stack, v -> {
+            latch.countDown();
+            try {
+                assertTrue(latch.await(1, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return (Integer) v * 2;
+        }, executor).toString());
+    }
+
+    @Test
+    public void testFirstFailureCancelsTheRest() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        Result<String, Result<String, Bottom>> stack = create().push("slow").push("fail");
+        try {
+            HStack.applyEach(stack, v -> {
+                try {
+                    if (v.equals("fail")) {
+                        started.await();
+                        throw new IllegalArgumentException("bad value");
+                    }
+                    started.countDown();
+                    Thread.sleep(10_000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return v;
+            }, executor);
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals("bad value", e.getCause().getMessage());
+        }
+        assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnboxedNotSupported() throws Exception {
+        HStack.applyEach(create().pushInt(1), v -> v, executor);
+    }
+}
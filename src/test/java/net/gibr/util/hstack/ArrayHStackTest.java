@@ -0,0 +1,85 @@
+package net.gibr.util.hstack;
+
+import static net.gibr.util.hstack.ArrayHStack.create;
+import static net.gibr.util.hstack.ArrayHStack.fold;
+import static net.gibr.util.hstack.ArrayHStack.peek;
+import static net.gibr.util.hstack.ArrayHStack.pop;
+import static net.gibr.util.hstack.ArrayHStack.swap;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import net.gibr.util.hstack.HStack.Bottom;
+import net.gibr.util.hstack.HStack.Result;
+
+public class ArrayHStackTest {
+    @Test
+    public void testPushPeekPop() {
+        ArrayHStack<Result<Integer, Result<String, Bottom>>> stack = create().push("a").push(1);
+        assertEquals("[1, a]", stack.toString());
+        assertEquals(Integer.valueOf(1), peek(stack));
+        assertEquals("a", peek(pop(stack)));
+        assertEquals(0, pop(pop(stack)).size());
+    }
+
+    @Test
+    public void testApplyDupSwapFold() {
+        ArrayHStack<Result<String, Result<Integer, Bottom>>> stack = create().push(1).push("a");
+        assertEquals("[A, 1]", ArrayHStack.apply(stack, String::toUpperCase).toString());
+        assertEquals("[a, a, 1]", ArrayHStack.dup(stack).toString());
+        assertEquals("[1, a]", swap(stack).toString());
+        assertEquals("[a1]", fold(stack, (s, i) -> s + i).toString());
+        // none of the above changed the original
+        assertEquals("[a, 1]", stack.toString());
+    }
+
+    @Test
+    public void testBranchesDontSeeEachOther() {
+        ArrayHStack<Result<String, Result<String, Bottom>>> base = create().push("a").push("b");
+        ArrayHStack<Result<String, Result<String, Result<String, Bottom>>>> first = base.push("c");
+        ArrayHStack<Result<String, Result<String, Result<String, Bottom>>>> second = base.push("d");
+        ArrayHStack<Result<String, Result<String, Result<String, Bottom>>>> third = pop(first).push("e");
+        assertEquals("[c, b, a]", first.toString());
+        assertEquals("[d, b, a]", second.toString());
+        assertEquals("[e, b, a]", third.toString());
+        assertEquals("[b, a]", base.toString());
+        assertEquals("[g, f, c, b, a]", first.push("f").push("g").toString());
+    }
+
+    @Test
+    public void testGet() {
+        ArrayHStack<Result<String, Result<Integer, Result<Double, Bottom>>>> stack = create().push(1.0).push(2).push("c");
+        assertEquals("c", stack.get(0));
+        assertEquals(2, stack.get(1));
+        assertEquals(1.0, stack.get(2));
+        try {
+            stack.get(3);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+        }
+    }
+
+    @Test
+    public void testConversion() {
+        Result<String, Result<Integer, Bottom>> linked = HStack.create().push(1).push("a");
+        ArrayHStack<Result<String, Result<Integer, Bottom>>> array = ArrayHStack.from(linked);
+        assertEquals(create().push(1).push("a"), array);
+        assertEquals(linked.hashCode(), array.hashCode());
+        assertEquals(linked, array.toHStack());
+        assertEquals(linked, array.push(2.0).toHStack().pop());
+        assertSame(HStack.create(), ArrayHStack.from(HStack.create()).toHStack());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnboxedNotSupported() {
+        ArrayHStack.from(HStack.create().pushInt(1));
+    }
+
+    @Test
+    public void testFolds() {
+        ArrayHStack<Result<String, Result<String, Result<String, Bottom>>>> stack = create().push("c").push("b").push("a");
+        assertEquals("abc", stack.foldL("", String::valueOf, String::concat));
+        assertEquals("cba", stack.foldR("", String::valueOf, String::concat));
+        assertEquals("", create().foldL("", String::valueOf, String::concat));
+    }
+}
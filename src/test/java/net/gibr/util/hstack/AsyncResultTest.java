@@ -0,0 +1,107 @@
+package net.gibr.util.hstack;
+
+import static net.gibr.util.hstack.HStack.create;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import net.gibr.util.hstack.HStack.Bottom;
+import net.gibr.util.hstack.HStack.Result;
+
+public class AsyncResultTest {
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testAwait() throws Exception {
+        CompletableFuture<String> a = new CompletableFuture<>();
+        CompletableFuture<Integer> b = new CompletableFuture<>();
+        AsyncResult<Integer, Result<String, Result<Double, Bottom>>> stack = AsyncResult.push(create().push(1.5), a).push(b);
+        assertEquals(3, stack.size());
+        assertEquals("[?, ?, 1.5]", stack.toString());
+        CompletableFuture<Result<Integer, Result<String, Result<Double, Bottom>>>> done = stack.await();
+        b.complete(2);
+        assertFalse(done.isDone());
+        a.complete("a");
+        assertEquals(create().push(1.5).push("a").push(2), done.get(1, TimeUnit.SECONDS));
+        assertEquals("[2, a, 1.5]", stack.toString());
+    }
+
+    @Test
+    public void testToStringWithEmptyString() {
+        assertEquals("[y, ]", AsyncResult.push(create().push(""), CompletableFuture.completedFuture("y")).toString());
+        assertEquals("[y]", AsyncResult.push(create(), CompletableFuture.completedFuture("y")).toString());
+    }
+
+    @Test
+    public void testSlotsComputeConcurrently() throws Exception {
+        // each function waits for the other so they only finish if they run at the same time
+        CountDownLatch latch = new CountDownLatch(2);
+        AsyncResult<String, Result<String, Bottom>> stack = AsyncResult.push(create(), CompletableFuture.completedFuture("a")).push(CompletableFuture.completedFuture("b"));
+        AsyncResult<String, Result<String, Bottom>> applied = AsyncResult.swap(AsyncResult.swap(stack.applyAsync(s -> meet(latch, s), executor)).applyAsync(s -> meet(latch, s), executor));
+        assertEquals("[B, A]", applied.await().get(1, TimeUnit.SECONDS).toString());
+    }
+
+    private static String meet(CountDownLatch latch, String s) {
+        latch.countDown();
+        try {
+            assertTrue(latch.await(1, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+        return s.toUpperCase();
+    }
+
+    @Test
+    public void testFoldAndPopOntoPlainBase() throws Exception {
+        Result<String, Result<Integer, Bottom>> base = create().push(2).push("a");
+        AsyncResult<String, Result<Integer, Bottom>> lifted = AsyncResult.of(base);
+        AsyncResult<String, Bottom> folded = AsyncResult.foldAsync(lifted, (s, i) -> s + i);
+        assertEquals(create().push("a2"), folded.await().get(1, TimeUnit.SECONDS));
+        assertEquals(create().push(2), AsyncResult.pop(lifted).await().get(1, TimeUnit.SECONDS));
+        AsyncResult<Integer, Result<String, Bottom>> swapped = AsyncResult.swap(lifted);
+        assertEquals(create().push("a").push(2), swapped.await().get(1, TimeUnit.SECONDS));
+        assertEquals("[a2]", AsyncResult.foldAsync(lifted, (s, i) -> s + i, executor).await().get(1, TimeUnit.SECONDS).toString());
+    }
+
+    @Test
+    public void testFailurePropagates() throws Exception {
+        CompletableFuture<String> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("remote call failed"));
+        AsyncResult<Integer, Result<String, Bottom>> stack = AsyncResult.push(create(), failed).push(CompletableFuture.completedFuture(1));
+        try {
+            stack.await().get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals("remote call failed", e.getCause().getMessage());
+        }
+        assertTrue(AsyncResult.foldAsync(stack, (i, s) -> s + i).peek().isCompletedExceptionally());
+    }
+
+    @Test
+    public void testDeep() throws Exception {
+        AsyncResult<Integer, Bottom> stack = AsyncResult.push(create(), CompletableFuture.completedFuture(0));
+        AsyncResult<?, ?> s = stack;
+        for (int i = 1; i < 100_000; i++) {
+            s = push(s, i);
+        }
+        assertEquals(100_000, s.await().get(1, TimeUnit.SECONDS).size());
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static AsyncResult<?, ?> push(AsyncResult s, int i) {
+        return s.push(CompletableFuture.completedFuture(i));
+    }
+}
@@ -0,0 +1,119 @@
+package net.gibr.util.hstack;
+
+import static net.gibr.util.hstack.HStack.create;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class AtomicHStackTest {
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testPushPopPeek() {
+        AtomicHStack stack = new AtomicHStack();
+        assertEquals(create(), stack.get());
+        stack.push(1);
+        stack.push("a");
+        assertEquals("a", stack.peek());
+        assertEquals(create().push(1).push("a"), stack.get());
+        assertEquals("[a, 1]", stack.toString());
+        assertEquals("a", stack.pop());
+        assertEquals(1, stack.pop());
+        assertEquals(create(), stack.get());
+    }
+
+    @Test
+    public void testStartsFromStack() {
+        AtomicHStack stack = new AtomicHStack(create().pushInt(3).push("b"), 1);
+        assertEquals("b", stack.pop());
+        assertEquals(3, stack.pop());
+    }
+
+    @Test
+    public void testUpdate() {
+        AtomicHStack stack = new AtomicHStack(create().push(2).push(3), 4);
+        assertEquals(create().push(5), stack.update(s -> HStack.fold(create().push(2).push(3), Integer::sum)));
+        assertEquals(5, stack.peek());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPopEmpty() {
+        new AtomicHStack().pop();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPeekEmpty() {
+        new AtomicHStack().peek();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoSlots() {
+        new AtomicHStack(create(), 0);
+    }
+
+    @Test
+    public void testConcurrentPushPopLosesNothing() throws Exception {
+        int threads = 8;
+        int each = 20_000;
+        AtomicHStack stack = new AtomicHStack(create(), 2);
+        Set<Object> popped = ConcurrentHashMap.newKeySet();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int base = t * each;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < each; i++) {
+                    stack.push(base + i);
+                    // every thread pushes before it pops so the stack is never empty here
+                    assertTrue(popped.add(stack.pop()));
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        assertEquals(threads * each, popped.size());
+        assertEquals(0, stack.get().size());
+    }
+
+    @Test
+    public void testConcurrentPushesAllLand() throws Exception {
+        int threads = 8;
+        int each = 10_000;
+        AtomicHStack stack = new AtomicHStack();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < each; i++) {
+                    stack.push(i);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        assertEquals(threads * each, stack.get().size());
+    }
+}
@@ -0,0 +1,125 @@
+package net.gibr.util.hstack;
+
+import static net.gibr.util.hstack.ChunkedHStack.create;
+import static net.gibr.util.hstack.ChunkedHStack.fold;
+import static net.gibr.util.hstack.ChunkedHStack.peek;
+import static net.gibr.util.hstack.ChunkedHStack.pop;
+import static net.gibr.util.hstack.ChunkedHStack.swap;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import net.gibr.util.hstack.HStack.Bottom;
+import net.gibr.util.hstack.HStack.Result;
+
+public class ChunkedHStackTest {
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static ChunkedHStack deep(int depth) {
+        ChunkedHStack s = create();
+        for (int i = 0; i < depth; i++) {
+            s = s.push(Integer.valueOf(i));
+        }
+        return s;
+    }
+
+    @Test
+    public void testPushPeekPop() {
+        ChunkedHStack<Result<Integer, Result<String, Bottom>>> stack = create().push("a").push(1);
+        assertEquals("[1, a]", stack.toString());
+        assertEquals(Integer.valueOf(1), peek(stack));
+        assertEquals("a", peek(pop(stack)));
+        assertEquals(0, pop(pop(stack)).size());
+    }
+
+    @Test
+    public void testApplyDupSwapFold() {
+        ChunkedHStack<Result<String, Result<Integer, Bottom>>> stack = create().push(1).push("a");
+        assertEquals("[A, 1]", ChunkedHStack.apply(stack, String::toUpperCase).toString());
+        assertEquals("[a, a, 1]", ChunkedHStack.dup(stack).toString());
+        assertEquals("[1, a]", swap(stack).toString());
+        assertEquals("[a1]", fold(stack, (s, i) -> s + i).toString());
+        // none of the above changed the original
+        assertEquals("[a, 1]", stack.toString());
+    }
+
+    @Test
+    public void testToStringWithEmptyString() {
+        assertEquals("[, x]", ChunkedHStack.from(HStack.create().push("x").push("")).toString());
+        assertEquals("[, x]", create().push("x").push("").toString());
+    }
+
+    @Test
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public void testAcrossChunkBoundaries() {
+        for (int depth = 0; depth <= 3 * ChunkedHStack.CHUNK_SIZE + 1; depth++) {
+            ChunkedHStack stack = deep(depth);
+            HStack linked = stack.toHStack();
+            assertEquals(depth, stack.size());
+            assertEquals(linked.toString(), stack.toString());
+            assertEquals(linked.hashCode(), stack.hashCode());
+            assertEquals(stack, ChunkedHStack.from(linked));
+            for (int i = 0; i < depth; i++) {
+                assertEquals(depth - 1 - i, stack.get(i));
+            }
+            if (depth > 0) {
+                // popping across a boundary and pushing back gives an equal stack
+                ChunkedHStack popped = ChunkedHStack.pop(stack);
+                assertEquals(stack, popped.push(Integer.valueOf(depth - 1)));
+                assertEquals(linked.rest(), popped.toHStack());
+            }
+        }
+    }
+
+    @Test
+    public void testBranchesDontSeeEachOther() {
+        ChunkedHStack<Result<String, Result<String, Bottom>>> base = create().push("a").push("b");
+        ChunkedHStack<Result<String, Result<String, Result<String, Bottom>>>> first = base.push("c");
+        ChunkedHStack<Result<String, Result<String, Result<String, Bottom>>>> second = base.push("d");
+        ChunkedHStack<Result<String, Result<String, Result<String, Bottom>>>> third = pop(first).push("e");
+        assertEquals("[c, b, a]", first.toString());
+        assertEquals("[d, b, a]", second.toString());
+        assertEquals("[e, b, a]", third.toString());
+        assertEquals("[b, a]", base.toString());
+        assertEquals("[g, f, c, b, a]", first.push("f").push("g").toString());
+        assertNotEquals(first, second);
+    }
+
+    @Test
+    public void testGet() {
+        ChunkedHStack<Result<String, Result<Integer, Result<Double, Bottom>>>> stack = create().push(1.0).push(2).push("c");
+        assertEquals("c", stack.get(0));
+        assertEquals(2, stack.get(1));
+        assertEquals(1.0, stack.get(2));
+        try {
+            stack.get(3);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+        }
+    }
+
+    @Test
+    public void testConversion() {
+        Result<String, Result<Integer, Bottom>> linked = HStack.create().push(1).push("a");
+        ChunkedHStack<Result<String, Result<Integer, Bottom>>> chunked = ChunkedHStack.from(linked);
+        assertEquals(create().push(1).push("a"), chunked);
+        assertEquals(linked.hashCode(), chunked.hashCode());
+        assertEquals(linked, chunked.toHStack());
+        assertEquals(linked, chunked.push(2.0).toHStack().pop());
+        assertSame(HStack.create(), ChunkedHStack.from(HStack.create()).toHStack());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnboxedNotSupported() {
+        ChunkedHStack.from(HStack.create().pushInt(1));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFolds() {
+        ChunkedHStack<Result<String, Result<String, Result<String, Bottom>>>> stack = create().push("c").push("b").push("a");
+        assertEquals("abc", stack.foldL("", String::valueOf, String::concat));
+        assertEquals("cba", stack.foldR("", String::valueOf, String::concat));
+        assertEquals("", create().foldL("", String::valueOf, String::concat));
+        assertEquals(Long.valueOf(20 * 19 / 2), deep(20).foldL(0L, v -> (Integer) v, (a, b) -> (Long) a + (Integer) b));
+    }
+}
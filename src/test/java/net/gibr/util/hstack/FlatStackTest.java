@@ -0,0 +1,45 @@
+package net.gibr.util.hstack;
+
+import static net.gibr.util.hstack.HStack.create;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import net.gibr.util.hstack.HStack.Bottom;
+import net.gibr.util.hstack.HStack.Result;
+
+public class FlatStackTest {
+    @Test
+    public void testOperations() {
+        Stack2<Integer, String> stack = Stack1.of("a").push(1);
+        assertEquals("[1, a]", stack.toString());
+        assertEquals(Integer.valueOf(1), stack.peek());
+        assertEquals(Stack1.of("a"), stack.pop());
+        assertSame(create(), stack.pop().pop());
+        assertEquals(Stack2.of("a", 1), stack.swap());
+        assertEquals(Stack2.of(2, "a"), stack.apply(i -> i + 1));
+        assertEquals(Stack3.of(1, 1, "a"), stack.dup());
+        assertEquals(Stack1.of("1a"), stack.fold((i, s) -> i + s));
+        assertEquals(2, stack.size());
+    }
+
+    @Test
+    public void testConversion() {
+        Result<Integer, Result<String, Bottom>> linked = create().push("a").push(1);
+        Stack2<Integer, String> flat = Stack2.from(linked);
+        assertEquals(Stack2.of(1, "a"), flat);
+        assertEquals(linked, flat.toHStack());
+        assertEquals(linked.hashCode(), flat.hashCode());
+        assertEquals(linked.toString(), flat.toString());
+    }
+
+    @Test
+    public void testDeepestArrayFallsBackToLinked() {
+        Stack16<Integer, Integer, Integer, Integer, Integer, Integer, Integer, Integer, Integer, Integer, Integer, Integer, Integer, Integer, Integer, Integer> stack = Stack1.of(16).push(15)
+                .push(14).push(13).push(12).push(11).push(10).push(9).push(8).push(7).push(6).push(5).push(4).push(3).push(2).push(1);
+        assertEquals("[0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16]", stack.push(0).toString());
+        assertEquals(stack.toHStack(), stack.push(0).pop());
+        assertEquals(17, stack.dup().size());
+        assertEquals(stack, Stack16.from(stack.toHStack()));
+    }
+}
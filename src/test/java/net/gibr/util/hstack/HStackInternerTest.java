@@ -0,0 +1,86 @@
+package net.gibr.util.hstack;
+
+import static net.gibr.util.hstack.HStack.create;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import net.gibr.util.hstack.HStack.Bottom;
+import net.gibr.util.hstack.HStack.IntResult;
+import net.gibr.util.hstack.HStack.Result;
+
+public class HStackInternerTest {
+    @Test
+    public void testEqualStacksBecomeSame() {
+        HStackInterner interner = new HStackInterner();
+        Result<String, Result<Integer, Bottom>> a = interner.intern(create().push(1).push("a"));
+        Result<String, Result<Integer, Bottom>> b = interner.intern(create().push(1).push("a"));
+        assertSame(a, b);
+        // the shared base is canonical too
+        Result<Double, Result<Integer, Bottom>> c = interner.intern(create().push(1).push(2.0));
+        assertSame(a.pop(), c.pop());
+        assertSame(create(), interner.intern(create()));
+        assertEquals(3, interner.size());
+    }
+
+    @Test
+    public void testReusesNodesAlreadyOnCanonicalRest() {
+        HStackInterner interner = new HStackInterner();
+        Result<Integer, Bottom> base = interner.intern(create().push(1));
+        Result<String, Result<Integer, Bottom>> pushed = base.push("a");
+        assertSame(pushed, interner.intern(pushed));
+    }
+
+    @Test
+    public void testKindsKeptApart() {
+        HStackInterner interner = new HStackInterner();
+        IntResult<Bottom> unboxed = interner.intern(create().pushInt(1));
+        Result<Integer, Bottom> boxed = interner.intern(create().push(1));
+        assertNotSame(unboxed, boxed);
+        IntResult<Result<String, Bottom>> rebuilt = interner.intern(create().push("a").pushInt(1));
+        assertSame(rebuilt, interner.intern(create().push("a").pushInt(1)));
+        assertEquals(1, HStack.peekInt(rebuilt));
+    }
+
+    @Test
+    public void testStatistics() {
+        HStackInterner interner = new HStackInterner();
+        assertEquals(0, interner.hitRate(), 0);
+        interner.intern(create().push(1).push(2));
+        assertEquals(0, interner.hits());
+        assertEquals(2, interner.misses());
+        interner.intern(create().push(1).push(3));
+        assertEquals(1, interner.hits());
+        assertEquals(3, interner.misses());
+        assertEquals(0.25, interner.hitRate(), 0);
+    }
+
+    @Test
+    public void testDeepStack() {
+        HStackInterner interner = new HStackInterner();
+        HStack<?> a = deep(interner, 100_000);
+        HStack<?> b = deep(interner, 100_000);
+        assertSame(a, b);
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static HStack<?> deep(HStackInterner interner, int depth) {
+        HStack stack = create();
+        for (int i = 0; i < depth; i++) {
+            stack = HStack.push(stack, i);
+        }
+        return interner.intern(stack);
+    }
+
+    @Test
+    public void testCollectedNodesRemoved() throws InterruptedException {
+        HStackInterner interner = new HStackInterner();
+        deep(interner, 1000);
+        assertEquals(1000, interner.size());
+        for (int i = 0; i < 50 && interner.size() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(0, interner.size());
+    }
+}
@@ -8,13 +8,29 @@ import static org.junit.Assert.*;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.Spliterator;
 import java.util.StringJoiner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import org.junit.Test;
 
 import net.gibr.util.hstack.HStack.Bottom;
+import net.gibr.util.hstack.HStack.DoubleResult;
+import net.gibr.util.hstack.HStack.IntResult;
+import net.gibr.util.hstack.HStack.LongResult;
 import net.gibr.util.hstack.HStack.Result;
 
 public class HStackTest {
@@ -115,9 +131,7 @@ public class HStackTest {
         assertEquals("[null]", create().push(null).toString());
     }
 
-    @Test
-    public void testSerialization() throws IOException, ClassNotFoundException {
-        Result<String, Bottom> stackOut = create().push("a");
+    private static Object roundTrip(Object stackOut) throws IOException, ClassNotFoundException {
         ByteArrayOutputStream byteOutput = new ByteArrayOutputStream();
         ObjectOutputStream objOutput = new ObjectOutputStream(byteOutput);
         objOutput.writeObject(stackOut);
@@ -125,9 +139,119 @@ public class HStackTest {
 
         ByteArrayInputStream byteInput = new ByteArrayInputStream(byteOutput.toByteArray());
         ObjectInputStream objInput = new ObjectInputStream(byteInput);
-        Object stackIn = objInput.readObject();
+        return objInput.readObject();
+    }
+
+    @Test
+    public void testSerialization() throws IOException, ClassNotFoundException {
+        Result<String, Bottom> stackOut = create().push("a");
+        Object stackIn = roundTrip(stackOut);
 
         assertEquals(stackOut, stackIn);
+        assertSame(create(), roundTrip(create()));
+        assertSame(create(), ((Result<?, ?>) stackIn).pop());
+    }
+
+    @Test
+    public void testSerializationOfEveryCodec() throws IOException, ClassNotFoundException {
+        char[] longString = new char[100_000];
+        Arrays.fill(longString, 'x');
+        Result<Object, ?> stackOut = create().pushInt(1).pushLong(2L).pushDouble(3.0).push(null).push("a").push(new String(longString)).push(true).push(false).push((byte) 4)
+                .push((short) 5).push('6').push(7).push(8L).push(9f).push(10.0).push(new BigDecimal("11")).push(create().push("nested")).apply(x -> x);
+        @SuppressWarnings("unchecked")
+        Result<Object, ?> stackIn = (Result<Object, ?>) roundTrip(stackOut);
+
+        assertEquals(stackOut, stackIn);
+        assertEquals(stackOut.toString(), stackIn.toString());
+        assertEquals(stackOut.size(), stackIn.size());
+        assertEquals(Arrays.asList(1, 2L, 3.0), stackIn.foldR(new ArrayList<Object>(), x -> x, (list, x) -> {
+            list.add(x);
+            return list;
+        }).subList(0, 3));
+
+        assertTrue(roundTrip(create().pushInt(1)) instanceof IntResult);
+        assertTrue(roundTrip(create().pushLong(1)) instanceof LongResult);
+        assertTrue(roundTrip(create().pushDouble(1)) instanceof DoubleResult);
+
+        Result<byte[], Bottom> bytes = create().push(new byte[] { 1, 2, 3 });
+        assertArrayEquals(bytes.peek(), ((Result<?, ?>) roundTrip(bytes)).foldL(null, x -> (byte[]) x, (a, b) -> b));
+    }
+
+    /** {@code create().push("a").push("b")} written before nodes tracked their depth */
+    private static final String NODES_WITHOUT_DEPTH = "rO0ABXNyACJuZXQuZ2lici51dGlsLmhzdGFjay5IU3RhY2skUmVzdWx04DkU7IMiqswCAAJMAARyZXN0dAAdTG5ldC9naWJyL3V0aWwvaHN0YWNrL0hTdGFjaztMAAV2YWx1ZXQA"
+            + "EkxqYXZhL2xhbmcvT2JqZWN0O3hyABtuZXQuZ2lici51dGlsLmhzdGFjay5IU3RhY2txTPgZ9F5sAgIAAHhwc3EAfgAAc3IAIm5ldC5naWJyLnV0aWwuaHN0YWNrLkhTdGFjayRCb3R0b23a58HHhaDfNAIAAHhxAH4AA3QA"
+            + "AWF0AAFi";
+
+    @Test(expected = InvalidObjectException.class)
+    public void testSerializationWithoutDepthRejected() throws IOException, ClassNotFoundException {
+        new ObjectInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(NODES_WITHOUT_DEPTH))).readObject();
+    }
+
+    /** writes the nodes of stacks directly, as a crafted stream could, instead of through their proxy */
+    private static byte[] writeNodes(HStack<?> stack) throws IOException {
+        ByteArrayOutputStream byteOutput = new ByteArrayOutputStream();
+        try (ObjectOutputStream objOutput = new ObjectOutputStream(byteOutput) {
+            {
+                enableReplaceObject(true);
+            }
+
+            @Override
+            protected Object replaceObject(Object obj) throws IOException {
+                if (!(obj instanceof SerializationProxy))
+                    return obj;
+                try {
+                    Field stack = SerializationProxy.class.getDeclaredField("stack");
+                    stack.setAccessible(true);
+                    return stack.get(obj);
+                } catch (ReflectiveOperationException e) {
+                    throw new IOException(e);
+                }
+            }
+        }) {
+            objOutput.writeObject(stack);
+        }
+        return byteOutput.toByteArray();
+    }
+
+    @Test
+    public void testSerializationRequiresProxy() throws IOException, ClassNotFoundException {
+        for (HStack<?> stack : Arrays.<HStack<?>> asList(create().push("a"), create().pushInt(1), create().pushLong(1), create().pushDouble(1))) {
+            try {
+                new ObjectInputStream(new ByteArrayInputStream(writeNodes(stack))).readObject();
+                fail("read " + stack.getClass().getSimpleName() + " without its proxy");
+            } catch (InvalidObjectException e) {
+                assertEquals("proxy required", e.getMessage());
+            }
+        }
+        assertSame(create(), new ObjectInputStream(new ByteArrayInputStream(writeNodes(create()))).readObject());
+    }
+
+    @Test(expected = InvalidObjectException.class)
+    public void testSerializationWithNegativeLength() throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream byteOutput = new ByteArrayOutputStream();
+        try (ObjectOutputStream objOutput = new ObjectOutputStream(byteOutput)) {
+            objOutput.writeObject(create().push(new byte[] { 7, 7, 7 }));
+        }
+        byte[] bytes = byteOutput.toByteArray();
+        // the length written before the bytes
+        int at = Collections.indexOfSubList(Arrays.asList(toObjects(bytes)), Arrays.asList((byte) 0, (byte) 0, (byte) 0, (byte) 3, (byte) 7, (byte) 7, (byte) 7));
+        assertTrue(at > 0);
+        Arrays.fill(bytes, at, at + 4, (byte) 0xff);
+        new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+    }
+
+    private static Byte[] toObjects(byte[] bytes) {
+        Byte[] objects = new Byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            objects[i] = bytes[i];
+        }
+        return objects;
+    }
+
+    @Test
+    public void testSerializationOfDeepStack() throws IOException, ClassNotFoundException {
+        HStack<?> stackOut = deep(1_000_000);
+        assertEquals(stackOut, roundTrip(stackOut));
     }
 
     @Test
@@ -144,4 +268,299 @@ public class HStackTest {
 
         assertEquals("ab", stack.foldL(String::valueOf, (x, y) -> x + y));
     }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static HStack<?> deep(int depth) {
+        HStack stack = create();
+        for (int i = 0; i < depth; i++) {
+            stack = HStack.push(stack, i);
+        }
+        return stack;
+    }
+
+    @Test
+    public void testDeepStack() {
+        int depth = 1_000_000;
+        HStack<?> stack = deep(depth);
+        HStack<?> copy = deep(depth);
+
+        assertEquals(Long.valueOf(depth * (depth - 1L) / 2), stack.foldL(0L, v -> (Integer) v, (sum, v) -> sum + v));
+        // the top of the stack is visited first by foldL and last by foldR
+        assertEquals(Integer.valueOf(0), stack.foldL(null, v -> (Integer) v, (last, v) -> v));
+        assertEquals(Integer.valueOf(depth - 1), stack.foldR(null, v -> (Integer) v, (last, v) -> v));
+        assertTrue(stack.equals(copy));
+        assertFalse(stack.equals(deep(depth - 1)));
+        assertEquals(stack.hashCode(), copy.hashCode());
+    }
+
+    @Test
+    public void testHashCodeMatchesRecursiveDefinition() {
+        Result<String, Result<Integer, Bottom>> stack = create().push(1).push("a");
+        int expected = (create().hashCode() * 31 + Integer.valueOf(1).hashCode()) * 31 + "a".hashCode();
+        assertEquals(expected, stack.hashCode());
+    }
+
+    @Test
+    public void testPrimitives() {
+        IntResult<Bottom> ints = create().pushInt(1);
+        assertEquals(3, HStack.foldInt(ints.pushInt(2), Integer::sum).applyInt(x -> x * 1).peekInt());
+        assertEquals(4L, HStack.foldLong(create().pushLong(1L).pushLong(3L), Long::sum).peekLong());
+        assertEquals(0.5, create().pushDouble(2.0).applyDouble(x -> 1 / x).peekDouble(), 0.0);
+
+        Result<String, LongResult<IntResult<Bottom>>> mixed = create().pushInt(1).pushLong(2L).push("a");
+        assertEquals("[a, 2, 1]", mixed.toString());
+        assertEquals(2L, mixed.pop().peekLong());
+        assertEquals(1, mixed.pop().pop().peekInt());
+        assertSame(create(), mixed.pop().pop().pop());
+    }
+
+    @Test
+    public void testPrimitivesEqualBoxed() {
+        Result<Integer, Result<Double, Bottom>> boxed = create().push(1.5).push(1);
+        IntResult<DoubleResult<Bottom>> unboxed = create().pushDouble(1.5).pushInt(1);
+        assertTrue(boxed.equals(unboxed));
+        assertTrue(unboxed.equals(boxed));
+        assertEquals(boxed.hashCode(), unboxed.hashCode());
+        assertEquals(boxed, unboxed.boxed().applyRest(DoubleResult::boxed));
+        assertFalse(unboxed.equals(create().pushDouble(1.5).pushLong(1L)));
+    }
+
+    @Test
+    public void testSize() {
+        assertEquals(0, create().size());
+        assertEquals(1, create().push("a").size());
+        assertEquals(3, create().pushInt(1).push("a").dup().size());
+        assertEquals(2, swap(create().push("a").pushDouble(1.0).boxed()).size());
+        assertEquals(1, fold(create().push("a").push("b"), String::concat).size());
+        assertEquals(100_000, deep(100_000).size());
+        assertFalse(create().push("a").equals(create().push("a").push("a")));
+    }
+
+    @Test
+    public void testHashCodeCached() {
+        HStack<?> stack = deep(10_000);
+        int hash = stack.hashCode();
+        assertEquals(hash, stack.hashCode());
+        assertEquals(hash, deep(10_000).hashCode());
+
+        Result<Integer, Bottom> base = create().push(1);
+        int baseHash = base.hashCode();
+        Result<String, Result<Integer, Bottom>> pushed = base.push("a");
+        assertEquals(baseHash * 31 + "a".hashCode(), pushed.hashCode());
+        assertEquals(pushed.hashCode(), create().push(1).push("a").hashCode());
+    }
+
+    @Test
+    public void testForthOperators() {
+        Result<Integer, Result<Double, Result<Long, Result<Character, Result<String, Bottom>>>>> stack = create().push("e").push('d').push(3L).push(2.0).push(1);
+        assertEquals("[1, 2.0, 3, d, e]", stack.toString());
+        assertEquals("[2.0, 1, 2.0, 3, d, e]", HStack.over(stack).toString());
+        assertEquals("[1, 3, d, e]", HStack.nip(stack).toString());
+        assertEquals("[1, 2.0, 1, 3, d, e]", HStack.tuck(stack).toString());
+        assertEquals("[3, 1, 2.0, d, e]", HStack.rot(stack).toString());
+        assertEquals("[3, 1, 2.0, 3, d, e]", HStack.pick2(stack).toString());
+        assertEquals("[d, 1, 2.0, 3, d, e]", HStack.pick3(stack).toString());
+        assertEquals("[d, 1, 2.0, 3, e]", HStack.roll3(stack).toString());
+        assertEquals("[e, 1, 2.0, 3, d]", HStack.roll4(stack).toString());
+        assertEquals("[3, 2.0, 1, d, e]", HStack.swapAt2(stack).toString());
+        assertEquals("[d, 2.0, 3, 1, e]", HStack.swapAt3(stack).toString());
+
+        // the same as the compositions in the swap javadoc
+        assertEquals(swap(stack.applyRest(HStack::swap)), HStack.rot(stack));
+        // only the new top is allocated
+        assertSame(stack, HStack.over(stack).pop());
+        assertSame(stack, HStack.pick3(stack).pop());
+        assertSame(stack.pop().pop().pop(), HStack.rot(stack).pop().pop().pop());
+    }
+
+    @Test
+    public void testStream() {
+        Result<Integer, Result<String, Result<Double, Bottom>>> stack = create().push(1.5).push("a").pushInt(2).boxed();
+        assertEquals(Arrays.asList(2, "a", 1.5), stack.stream().collect(Collectors.toList()));
+        assertEquals(0, create().stream().count());
+        assertEquals(Arrays.asList(null, "a"), create().push("a").push((Object) null).stream().collect(Collectors.toList()));
+
+        int depth = 100_000;
+        HStack<?> deep = deep(depth);
+        assertEquals((long) depth * (depth - 1) / 2, deep.stream().parallel().mapToLong(v -> (Integer) v).sum());
+        assertEquals(deep.foldL(new ArrayList<>(), v -> v, (l, v) -> {
+            l.add(v);
+            return l;
+        }), deep.stream().parallel().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testSpliterator() {
+        int depth = 10_000;
+        Spliterator<Object> spliterator = deep(depth).spliterator();
+        assertTrue(spliterator.hasCharacteristics(Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.IMMUTABLE));
+        assertFalse(spliterator.hasCharacteristics(Spliterator.NONNULL));
+        assertEquals(depth, spliterator.getExactSizeIfKnown());
+        Spliterator<Object> first = spliterator.trySplit();
+        // the first batch is the top of the stack
+        assertEquals(HStackSpliterator.BATCH_UNIT, first.getExactSizeIfKnown());
+        assertEquals(depth - HStackSpliterator.BATCH_UNIT, spliterator.getExactSizeIfKnown());
+        first.tryAdvance(v -> assertEquals(depth - 1, v));
+        assertEquals(2 * HStackSpliterator.BATCH_UNIT, spliterator.trySplit().getExactSizeIfKnown());
+        spliterator.tryAdvance(v -> assertEquals(depth - 1 - 3 * HStackSpliterator.BATCH_UNIT, v));
+        assertNull(create().push(1).spliterator().trySplit());
+    }
+
+    @Test
+    public void testShortCircuiting() {
+        Result<String, Result<Integer, Result<String, Result<Double, Bottom>>>> stack = create().push(1.5).push("b").pushInt(2).boxed().push("a");
+        assertEquals(1, stack.indexOf(Integer.class::isInstance));
+        assertEquals(-1, stack.indexOf(Long.class::isInstance));
+        assertEquals(Optional.of("b"), stack.find(v -> "b".equals(v)));
+        assertEquals(Optional.empty(), stack.find(Long.class::isInstance));
+        assertTrue(stack.anyMatch(Double.class::isInstance));
+        assertFalse(create().anyMatch(v -> true));
+        // stops once the string is three values long
+        assertEquals("a2b", stack.foldWhile("", String::valueOf, String::concat, s -> s.length() < 3));
+        assertEquals("a2b1.5", stack.foldWhile("", String::valueOf, String::concat, s -> true));
+    }
+
+    @Test
+    public void testShortCircuitStopsEarly() {
+        HStack<?> deep = deep(1_000_000);
+        int[] visited = new int[1];
+        assertEquals(2, deep.indexOf(v -> {
+            visited[0]++;
+            return (Integer) v == 999_997;
+        }));
+        assertEquals(3, visited[0]);
+        assertEquals(Integer.valueOf(10), deep.foldWhile(0, v -> 1, Integer::sum, n -> n < 10));
+    }
+
+    @Test
+    public void testParallelFold() {
+        HStack<?> deep = deep(100_000);
+        assertEquals(Long.valueOf(100_000L * 99_999 / 2), deep.parallelFold(v -> (long) (Integer) v, Long::sum, 0L));
+        assertEquals("z", create().parallelFold(String::valueOf, String::concat, "z"));
+
+        // order is kept for associative but not commutative combiners with any cutoff
+        Result<String, Result<String, Result<String, Result<String, Result<String, Bottom>>>>> stack = create().push("e").push("d").push("c").push("b").push("a");
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int cutoff = 1; cutoff <= 6; cutoff++) {
+                assertEquals("abcde", stack.parallelFold(String::valueOf, String::concat, "", pool, cutoff));
+            }
+            assertEquals("abcde", stack.parallelFold(String::valueOf, String::concat, "", pool, Integer.MAX_VALUE));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParallelFoldCutoff() {
+        create().push(1).parallelFold(v -> v, (a, b) -> a, null, ForkJoinPool.commonPool(), 0);
+    }
+
+    @Test
+    public void testTruncatedOutput() throws IOException {
+        Result<String, Result<Integer, Result<Double, Bottom>>> stack = create().push(1.5).pushInt(2).boxed().push("a");
+        assertEquals("[a, 2, 1.5]", stack.toString(3));
+        assertEquals("[a, 2, ... 1 more]", stack.toString(2));
+        assertEquals("[... 3 more]", stack.toString(0));
+        assertEquals("[]", create().toString(0));
+        assertEquals("x[a, 2, 1.5]", stack.appendTo(new StringBuilder("x")).toString());
+
+        StringWriter writer = new StringWriter();
+        deep(1_000_000).writeTo(writer, 3);
+        assertEquals("[999999, 999998, 999997, ... 999997 more]", writer.toString());
+        writer = new StringWriter();
+        stack.writeTo(writer);
+        assertEquals(stack.toString(), writer.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeLimit() {
+        create().toString(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeLimitOnDeepStack() {
+        deep(1000).toString(-100);
+    }
+
+    @Test
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public void testCommonTail() {
+        Result<Integer, Result<String, Bottom>> base = create().push("a").push(1);
+        Result<Integer, Result<Integer, Result<Integer, Result<String, Bottom>>>> deeper = base.push(2).push(3);
+        Result<Double, Result<Integer, Result<String, Bottom>>> forked = base.push(2.0);
+        assertSame(base, HStack.commonTail(deeper, forked));
+        assertSame(base, HStack.commonTail(forked, deeper));
+        assertSame(base, HStack.commonTail(base, deeper));
+        assertSame(base, HStack.commonTail(base, base));
+        // equal but not shared
+        assertSame(create(), HStack.commonTail(base, create().push("a").push(1)));
+        assertSame(create(), HStack.commonTail(create(), base));
+
+        HStack deep = deep(1_000_000);
+        assertSame(deep, HStack.commonTail(HStack.push(deep, "x"), HStack.push(HStack.push(deep, "y"), "z")));
+    }
+
+    @Test
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public void testEqualsShortCircuits() {
+        HStack deep = deep(1_000_000);
+        // forked from the same base so only the tops are compared
+        assertEquals(HStack.push(deep, "x"), HStack.push(deep, "x"));
+        assertNotEquals(HStack.push(deep, "x"), HStack.push(deep, "y"));
+
+        Result<String, Result<String, Bottom>> a = create().push("b").push("a");
+        Result<String, Result<String, Bottom>> b = create().push("c").push("a");
+        // cached hashes that differ settle it before the values are compared
+        a.hashCode();
+        b.hashCode();
+        assertNotEquals(a, b);
+        assertEquals(a, create().push("b").push("a"));
+    }
+
+    @Test
+    public void testLazyApply() {
+        AtomicInteger calls = new AtomicInteger();
+        Result<String, Result<Integer, Bottom>> stack = create().push(1).push("a");
+        Result<Integer, Result<Integer, Bottom>> lazy = stack.applyLazy(s -> {
+            calls.incrementAndGet();
+            return s.length();
+        }).applyLazy(n -> {
+            calls.incrementAndGet();
+            return n * 10;
+        });
+        // moving the value around doesn't compute it
+        Result<Integer, Result<Integer, Bottom>> swapped = HStack.swap(lazy);
+        Result<Integer, Result<Integer, Result<Integer, Bottom>>> dup = lazy.dup();
+        assertSame(stack.pop(), lazy.pop());
+        assertEquals(0, calls.get());
+
+        assertEquals(Integer.valueOf(10), swapped.pop().peek());
+        assertEquals(2, calls.get());
+        // computed once and shared by every node holding it
+        assertEquals(Integer.valueOf(10), lazy.peek());
+        assertEquals("[10, 10, 1]", dup.toString());
+        assertEquals(2, calls.get());
+        assertEquals(create().push(1).push(10), lazy);
+        assertEquals(create().push(1).push(10).hashCode(), lazy.hashCode());
+
+        // composing onto a computed value starts from the result
+        assertEquals(Integer.valueOf(11), lazy.applyLazy(n -> n + 1).peek());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testLazyApplyNeverRead() {
+        AtomicInteger calls = new AtomicInteger();
+        Result<String, Bottom> stack = create().push("a");
+        assertSame(create(), stack.applyLazy(s -> calls.incrementAndGet()).pop());
+        assertEquals("[x]", stack.applyLazy(s -> calls.incrementAndGet()).pop().push("x").toString());
+        assertEquals(0, calls.get());
+    }
+
+    @Test
+    public void testLazyApplySerialized() throws IOException, ClassNotFoundException {
+        Result<Integer, Bottom> lazy = create().push("abc").applyLazy(String::length);
+        assertEquals(lazy, roundTrip(lazy));
+    }
 }
@@ -0,0 +1,92 @@
+package net.gibr.util.hstack;
+
+import static org.junit.Assert.*;
+
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+public class PipelineCompilerTest {
+    private static final Function<Object, Object> INCREMENT = x -> (Integer) x + 1;
+    private static final BiFunction<Object, Object, Object> SUBTRACT = (a, b) -> (Integer) a - (Integer) b;
+
+    /** a chain of {@code calls} applies and folds, each reading the result of the one before from a slot after {@code offset} */
+    private static Object[] run(int calls, int offset) {
+        Object[] functions = new Object[calls];
+        int[] outs = new int[calls];
+        int[] firsts = new int[calls];
+        int[] seconds = new int[calls];
+        for (int i = 0; i < calls; i++) {
+            boolean fold = i % 3 == 2;
+            functions[i] = fold ? SUBTRACT : INCREMENT;
+            firsts[i] = offset + i;
+            seconds[i] = fold ? 0 : -1;
+            outs[i] = offset + i + 1;
+        }
+        Consumer<Object[]> compiled = PipelineCompiler.compile(functions, outs, firsts, seconds);
+        Object[] slots = new Object[offset + calls + 1];
+        slots[0] = 1;
+        slots[offset] = 10;
+        compiled.accept(slots);
+        return new Object[] { compiled, slots[offset + calls] };
+    }
+
+    private static int expected(int calls) {
+        int value = 10;
+        for (int i = 0; i < calls; i++) {
+            value = i % 3 == 2 ? value - 1 : value + 1;
+        }
+        return value;
+    }
+
+    @Test
+    public void testEachProgramGetsItsOwnClass() {
+        Object a = run(3, 1)[0];
+        Object b = run(3, 1)[0];
+        assertTrue(a.getClass().getName().startsWith("net.gibr.util.hstack.PipelineProgram$"));
+        assertNotSame(a.getClass(), b.getClass());
+        assertNotSame(PipelineCompiler.class.getClassLoader(), a.getClass().getClassLoader());
+    }
+
+    @Test
+    public void testRunsEveryCall() {
+        for (int calls : new int[] { 1, 2, 3, PipelineCompiler.CALLS_PER_METHOD, PipelineCompiler.CALLS_PER_METHOD + 1, 500 }) {
+            assertEquals(expected(calls), run(calls, 1)[1]);
+        }
+    }
+
+    @Test
+    public void testLargeSlotIndices() {
+        for (int offset : new int[] { 4, 100, 1_000, 40_000 }) {
+            assertEquals(expected(7), run(7, offset)[1]);
+        }
+    }
+
+    @Test
+    public void testLargeProgramsShareCallSites() {
+        Object[] result = run(PipelineCompiler.MAX_CALLS + 1, 1);
+        assertFalse(result[0].getClass().getName().startsWith("net.gibr.util.hstack.PipelineProgram$"));
+        assertEquals(expected(PipelineCompiler.MAX_CALLS + 1), result[1]);
+    }
+
+    @Test
+    public void testUnwrapsDeferredArguments() {
+        Consumer<Object[]> compiled = PipelineCompiler.compile(new Object[] { SUBTRACT }, new int[] { 2 }, new int[] { 0 }, new int[] { 1 });
+        Object[] slots = { new Deferred(5, INCREMENT), new Deferred(1, INCREMENT), null };
+        compiled.accept(slots);
+        assertEquals(4, slots[2]);
+    }
+
+    @Test
+    public void testExceptionsPassThrough() {
+        Consumer<Object[]> compiled = PipelineCompiler.compile(new Object[] { INCREMENT }, new int[] { 1 }, new int[] { 0 }, new int[] { -1 });
+        try {
+            compiled.accept(new Object[] { "not a number", null });
+            fail();
+        } catch (ClassCastException e) {
+            // thrown by the user function
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package net.gibr.util.hstack;
+
+import static net.gibr.util.hstack.HStack.create;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import net.gibr.util.hstack.HStack.Bottom;
+import net.gibr.util.hstack.HStack.Result;
+
+public class PipelineTest {
+    @Test
+    public void testRun() {
+        Pipeline<Result<String, Bottom>, Result<String, Bottom>> pipeline = Pipeline.<Result<String, Bottom>> start().push("b").then(Pipeline::swap).then(p -> Pipeline.fold(p, String::concat));
+        assertEquals("[ab]", pipeline.apply(create().push("a")).toString());
+        assertEquals("[cb]", pipeline.apply(create().push("c")).toString());
+        assertEquals("[push, swap, fold]", pipeline.toString());
+    }
+
+    @Test
+    public void testSameAsHStack() {
+        Result<Integer, Result<String, Result<Double, Bottom>>> stack = create().push(1.5).push("a").push(2);
+        Pipeline<Result<Integer, Result<String, Result<Double, Bottom>>>, Result<String, Result<Integer, Result<Double, Bottom>>>> pipeline = Pipeline
+                .<Result<Integer, Result<String, Result<Double, Bottom>>>> start().then(p -> Pipeline.apply(p, x -> x + 1)).then(Pipeline::dup).then(Pipeline::pop).then(Pipeline::swap)
+                .then(p -> Pipeline.apply(p, String::toUpperCase));
+        assertEquals(HStack.swap(stack.apply(x -> x + 1).dup().pop()).apply(String::toUpperCase), pipeline.apply(stack));
+    }
+
+    @Test
+    public void testSameAsHStackWithFolds() {
+        Result<Integer, Result<Integer, Bottom>> stack = create().push(2).push(1);
+        Pipeline<Result<Integer, Result<Integer, Bottom>>, Result<Integer, Result<Integer, Bottom>>> pipeline = Pipeline.<Result<Integer, Result<Integer, Bottom>>> start()
+                .then(p -> Pipeline.apply(p, x -> x + 1)).then(Pipeline::swap).then(Pipeline::dup).then(p -> Pipeline.fold(p, Integer::sum)).then(Pipeline::swap).push(3)
+                .then(p -> Pipeline.fold(p, Integer::sum));
+        assertEquals(HStack.fold(HStack.swap(HStack.fold(HStack.swap(stack.apply(x -> x + 1)).dup(), Integer::sum)).push(3), Integer::sum), pipeline.apply(stack));
+        assertEquals("[5, 4]", pipeline.apply(stack).toString());
+    }
+
+    @Test
+    public void testPeephole() {
+        Pipeline<Result<String, Result<String, Bottom>>, Result<String, Result<String, Bottom>>> start = Pipeline.start();
+        assertEquals("[]", start.then(Pipeline::swap).then(Pipeline::swap).toString());
+        assertEquals("[]", start.then(Pipeline::dup).then(Pipeline::pop).toString());
+        assertEquals("[]", start.push(1).then(Pipeline::pop).toString());
+        // cancelling the dup and pop exposes the two swaps
+        assertEquals("[]", start.then(Pipeline::swap).then(Pipeline::dup).then(Pipeline::pop).then(Pipeline::swap).toString());
+        assertEquals("[apply]", start.then(p -> Pipeline.apply(p, String::toUpperCase)).then(p -> Pipeline.apply(p, String::length)).then(p -> Pipeline.apply(p, i -> i * 2)).toString());
+        // dup and fold becomes an apply that is composed with the apply before it
+        Pipeline<Result<String, Result<String, Bottom>>, Result<String, Result<String, Bottom>>> square = start.then(p -> Pipeline.apply(p, String::toUpperCase)).then(Pipeline::dup)
+                .then(p -> Pipeline.fold(p, String::concat));
+        assertEquals("[apply]", square.toString());
+        assertEquals("[AA, b]", square.apply(create().push("b").push("a")).toString());
+    }
+
+    @Test
+    public void testReusesUntouchedNodes() {
+        Result<String, Result<String, Bottom>> stack = create().push("b").push("a");
+        assertSame(stack, Pipeline.<Result<String, Result<String, Bottom>>> start().apply(stack));
+        assertSame(stack, Pipeline.<Result<String, Result<String, Bottom>>> start().push(1).apply(stack).pop());
+        assertSame(stack.pop(), Pipeline.<Result<String, Result<String, Bottom>>> start().then(p -> Pipeline.apply(p, String::toUpperCase)).apply(stack).pop());
+        assertSame(stack.pop().pop(), Pipeline.<Result<String, Result<String, Bottom>>> start().then(Pipeline::swap).apply(stack).pop().pop());
+    }
+
+    @Test
+    public void testFunctionsRunEveryTime() {
+        AtomicInteger calls = new AtomicInteger();
+        Pipeline<Result<String, Bottom>, Result<Integer, Bottom>> pipeline = Pipeline.<Result<String, Bottom>> start().then(p -> Pipeline.apply(p, s -> calls.incrementAndGet()));
+        pipeline.apply(create().push("a"));
+        pipeline.apply(create().push("a"));
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testLazyValuesOnlyComputedWhenRead() {
+        AtomicInteger calls = new AtomicInteger();
+        Result<Integer, Result<String, Bottom>> stack = create().push("b").push("a").applyLazy(s -> calls.incrementAndGet());
+        Pipeline<Result<Integer, Result<String, Bottom>>, Result<String, Result<Integer, Bottom>>> swap = Pipeline.<Result<Integer, Result<String, Bottom>>> start().then(Pipeline::swap);
+        Pipeline<Result<Integer, Result<String, Bottom>>, Result<String, Result<Integer, Result<String, Bottom>>>> pushed = Pipeline.<Result<Integer, Result<String, Bottom>>> start()
+                .push("c").then(Pipeline::dup).then(Pipeline::pop);
+        Result<String, Result<Integer, Bottom>> swapped = swap.apply(stack);
+        pushed.apply(stack);
+        Pipeline.<Result<Integer, Result<String, Bottom>>> start().then(Pipeline::pop).apply(stack);
+        assertEquals(0, calls.get());
+
+        assertEquals(Integer.valueOf(1), swapped.pop().peek());
+        assertEquals(Integer.valueOf(1), stack.peek());
+        Pipeline<Result<Integer, Result<String, Bottom>>, Result<Integer, Result<String, Bottom>>> read = Pipeline.<Result<Integer, Result<String, Bottom>>> start()
+                .then(p -> Pipeline.apply(p, i -> i * 10));
+        assertEquals(Integer.valueOf(10), read.apply(stack).peek());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testRearrangingResolvedAtCompileTime() {
+        Result<String, Result<String, Bottom>> stack = create().push("b").push("a");
+        // the peephole pass can't see that this is a no-op but the compiled program puts every value back where it was
+        Pipeline<Result<String, Result<String, Bottom>>, Result<String, Result<String, Bottom>>> nop = Pipeline.<Result<String, Result<String, Bottom>>> start().then(Pipeline::dup)
+                .then(Pipeline::swap).then(Pipeline::pop);
+        assertEquals("[dup, swap, pop]", nop.toString());
+        assertSame(stack, nop.apply(stack));
+    }
+
+    @Test
+    public void testCallsRunInOrder() {
+        StringBuilder calls = new StringBuilder();
+        Pipeline<Result<String, Result<String, Bottom>>, Result<String, Result<String, Bottom>>> pipeline = Pipeline.<Result<String, Result<String, Bottom>>> start()
+                .then(p -> Pipeline.apply(p, s -> {
+                    calls.append("f");
+                    return s;
+                })).then(Pipeline::swap).then(p -> Pipeline.apply(p, s -> {
+                    calls.append("g");
+                    return s;
+                })).then(Pipeline::swap);
+        assertEquals("[a, b]", pipeline.apply(create().push("b").push("a")).toString());
+        assertEquals("fg", calls.toString());
+    }
+}
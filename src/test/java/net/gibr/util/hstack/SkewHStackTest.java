@@ -0,0 +1,119 @@
+package net.gibr.util.hstack;
+
+import static net.gibr.util.hstack.SkewHStack.create;
+import static net.gibr.util.hstack.SkewHStack.fold;
+import static net.gibr.util.hstack.SkewHStack.peek;
+import static net.gibr.util.hstack.SkewHStack.pop;
+import static net.gibr.util.hstack.SkewHStack.swap;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import net.gibr.util.hstack.HStack.Bottom;
+import net.gibr.util.hstack.HStack.Result;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class SkewHStackTest {
+    private static SkewHStack deep(int depth) {
+        SkewHStack s = create();
+        for (int i = 0; i < depth; i++) {
+            s = s.push(Integer.valueOf(i));
+        }
+        return s;
+    }
+
+    @Test
+    public void testPushPeekPop() {
+        SkewHStack<Result<Integer, Result<String, Bottom>>> stack = create().push("a").push(1);
+        assertEquals("[1, a]", stack.toString());
+        assertEquals(Integer.valueOf(1), peek(stack));
+        assertEquals("a", peek(pop(stack)));
+        assertSame(create(), pop(pop(stack)));
+    }
+
+    @Test
+    public void testApplyDupSwapFold() {
+        SkewHStack<Result<String, Result<Integer, Bottom>>> stack = create().push(1).push("a");
+        assertEquals("[A, 1]", SkewHStack.apply(stack, String::toUpperCase).toString());
+        assertEquals("[a, a, 1]", SkewHStack.dup(stack).toString());
+        assertEquals("[1, a]", swap(stack).toString());
+        assertEquals("[a1]", fold(stack, (s, i) -> s + i).toString());
+        // none of the above changed the original
+        assertEquals("[a, 1]", stack.toString());
+    }
+
+    @Test
+    public void testToStringWithEmptyString() {
+        assertEquals("[, x]", SkewHStack.from(HStack.create().push("x").push("")).toString());
+        assertEquals("[, x]", create().push("x").push("").toString());
+    }
+
+    @Test
+    public void testPeekAt() {
+        for (int depth = 0; depth <= 100; depth++) {
+            SkewHStack stack = deep(depth);
+            HStack linked = stack.toHStack();
+            assertEquals(depth, stack.size());
+            assertEquals(linked.toString(), stack.toString());
+            assertEquals(linked.hashCode(), stack.hashCode());
+            assertEquals(stack, SkewHStack.from(linked));
+            for (int n = 0; n < depth; n++) {
+                assertEquals(depth - 1 - n, stack.peekAt(n));
+            }
+        }
+        try {
+            deep(3).peekAt(3);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+        }
+    }
+
+    @Test
+    public void testApplyAt() {
+        SkewHStack stack = deep(50);
+        for (int n = 0; n < 50; n++) {
+            SkewHStack updated = stack.applyAt(n, v -> -(Integer) v);
+            for (int i = 0; i < 50; i++) {
+                assertEquals(i == n ? -(49 - i) : 49 - i, updated.peekAt(i));
+            }
+            assertEquals(updated.toHStack().hashCode(), updated.hashCode());
+        }
+        // the original is untouched
+        assertEquals(deep(50), stack);
+    }
+
+    @Test
+    public void testPopEverything() {
+        SkewHStack stack = deep(1000);
+        for (int i = 999; i >= 0; i--) {
+            assertEquals(i, peek(stack));
+            stack = pop(stack);
+            assertEquals(i, stack.size());
+        }
+        assertSame(create(), stack);
+    }
+
+    @Test
+    public void testConversion() {
+        Result<String, Result<Integer, Bottom>> linked = HStack.create().push(1).push("a");
+        SkewHStack<Result<String, Result<Integer, Bottom>>> skew = SkewHStack.from(linked);
+        assertEquals(create().push(1).push("a"), skew);
+        assertEquals(linked.hashCode(), skew.hashCode());
+        assertEquals(linked, skew.toHStack());
+        assertEquals(linked, skew.push(2.0).toHStack().pop());
+        assertSame(HStack.create(), SkewHStack.from(HStack.create()).toHStack());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnboxedNotSupported() {
+        SkewHStack.from(HStack.create().pushInt(1));
+    }
+
+    @Test
+    public void testFolds() {
+        SkewHStack<Result<String, Result<String, Result<String, Bottom>>>> stack = create().push("c").push("b").push("a");
+        assertEquals("abc", stack.foldL("", String::valueOf, String::concat));
+        assertEquals("cba", stack.foldR("", String::valueOf, String::concat));
+        assertEquals("", create().foldL("", String::valueOf, String::concat));
+    }
+}
@@ -0,0 +1,208 @@
+package net.gibr.util.hstack;
+
+import static net.gibr.util.hstack.HStack.create;
+import static org.junit.Assert.*;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import net.gibr.util.hstack.HStack.Bottom;
+import net.gibr.util.hstack.HStack.Result;
+
+public class StackProcessorTest {
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testProcessesEveryStack() throws Exception {
+        Pipeline<Result<Integer, Bottom>, Result<Integer, Bottom>> pipeline = Pipeline.<Result<Integer, Bottom>> start().push(1).then(p -> Pipeline.fold(p, Integer::sum));
+        Set<Result<Integer, Bottom>> results = ConcurrentHashMap.newKeySet();
+        try (StackProcessor<Result<Integer, Bottom>, Result<Integer, Bottom>> processor = new StackProcessor<>(pipeline, results::add, executor, 4, 16, 64)) {
+            for (int i = 0; i < 10_000; i++) {
+                processor.submit(create().push(i));
+            }
+        }
+        assertEquals(10_000, results.size());
+        assertTrue(results.contains(create().push(10_000)));
+    }
+
+    @Test
+    public void testBackpressureAndParallelism() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        StackProcessor<Result<Integer, Bottom>, Result<Integer, Bottom>> processor = new StackProcessor<>(s -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            running.decrementAndGet();
+            return s;
+        }, s -> {
+        }, executor, 2, 1, 5);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(processor.offer(create().push(i)));
+        }
+        // full until something finishes
+        assertFalse(processor.offer(create().push(5)));
+        assertEquals(5, processor.pending());
+        for (int i = 0; i < 100 && running.get() < 2; i++) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        release.countDown();
+        processor.close();
+        assertEquals(0, processor.pending());
+        assertEquals(2, maxRunning.get());
+    }
+
+    @Test
+    public void testFailureStopsProcessor() throws Exception {
+        StackProcessor<Result<Integer, Bottom>, Result<Integer, Bottom>> processor = new StackProcessor<>(s -> {
+            if (s.peek() == 3)
+                throw new IllegalArgumentException("bad stack");
+            return s;
+        }, s -> {
+        }, executor, 1, 1, 10);
+        for (int i = 0; i < 5; i++) {
+            processor.submit(create().push(i));
+        }
+        try {
+            processor.close();
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals("bad stack", e.getCause().getMessage());
+        }
+        try {
+            processor.submit(create().push(5));
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("bad stack", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testRejectedByExecutor() throws Exception {
+        ExecutorService shutDown = Executors.newSingleThreadExecutor();
+        shutDown.shutdown();
+        StackProcessor<Result<Integer, Bottom>, Result<Integer, Bottom>> processor = new StackProcessor<>(s -> s, s -> {
+        }, shutDown, 2, 1, 10);
+        assertTrue(processor.offer(create().push(1)));
+        assertEquals(0, processor.pending());
+        try {
+            processor.close();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        try {
+            processor.submit(create().push(2));
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    @Test
+    public void testRejectedWhileDraining() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger accepted = new AtomicInteger();
+        Executor once = task -> {
+            if (accepted.getAndIncrement() > 0)
+                throw new RejectedExecutionException("only one task");
+            executor.execute(task);
+        };
+        AtomicInteger processed = new AtomicInteger();
+        StackProcessor<Result<Integer, Bottom>, Result<Integer, Bottom>> processor = new StackProcessor<>(s -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return s;
+        }, s -> processed.incrementAndGet(), once, 1, 1, 10);
+        for (int i = 0; i < 3; i++) {
+            processor.submit(create().push(i));
+        }
+        release.countDown();
+        try {
+            processor.close();
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals("only one task", e.getCause().getMessage());
+        }
+        assertEquals(0, processor.pending());
+        assertEquals(1, processed.get());
+    }
+
+    @Test
+    public void testSubmitRacingClose() throws Exception {
+        for (int round = 0; round < 200; round++) {
+            AtomicInteger processed = new AtomicInteger();
+            StackProcessor<Result<Integer, Bottom>, Result<Integer, Bottom>> processor = new StackProcessor<>(s -> s, s -> processed.incrementAndGet(), executor, 2, 4, 4);
+            AtomicInteger accepted = new AtomicInteger();
+            CountDownLatch started = new CountDownLatch(1);
+            Future<?> submitter = executor.submit(() -> {
+                started.countDown();
+                try {
+                    while (true) {
+                        processor.submit(create().push(1));
+                        accepted.incrementAndGet();
+                    }
+                } catch (IllegalStateException e) {
+                    // closed
+                }
+                return null;
+            });
+            started.await();
+            processor.close();
+            int atClose = processed.get();
+            submitter.get(1, TimeUnit.SECONDS);
+            assertEquals(accepted.get(), atClose);
+            assertEquals(0, processor.pending());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosed() throws Exception {
+        StackProcessor<Bottom, Bottom> processor = new StackProcessor<>(s -> s, s -> {
+        }, executor, 1, 1, 1);
+        processor.close();
+        processor.offer(create());
+    }
+
+    @Test
+    public void testWaitsForSlowSink() throws Exception {
+        AtomicInteger seen = new AtomicInteger();
+        StackProcessor<Bottom, Bottom> processor = new StackProcessor<>(s -> s, s -> {
+            try {
+                TimeUnit.MILLISECONDS.sleep(1);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            seen.incrementAndGet();
+        }, executor, 3, 4, 8);
+        for (int i = 0; i < 50; i++) {
+            processor.submit(create());
+        }
+        processor.close();
+        assertEquals(50, seen.get());
+    }
+}
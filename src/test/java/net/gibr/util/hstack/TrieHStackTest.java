@@ -0,0 +1,127 @@
+package net.gibr.util.hstack;
+
+import static net.gibr.util.hstack.TrieHStack.create;
+import static net.gibr.util.hstack.TrieHStack.fold;
+import static net.gibr.util.hstack.TrieHStack.peek;
+import static net.gibr.util.hstack.TrieHStack.pop;
+import static net.gibr.util.hstack.TrieHStack.swap;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import net.gibr.util.hstack.HStack.Bottom;
+import net.gibr.util.hstack.HStack.Result;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class TrieHStackTest {
+    private static TrieHStack deep(int depth) {
+        TrieHStack s = create();
+        for (int i = 0; i < depth; i++) {
+            s = s.push(Integer.valueOf(i));
+        }
+        return s;
+    }
+
+    @Test
+    public void testPushPeekPop() {
+        TrieHStack<Result<Integer, Result<String, Bottom>>> stack = create().push("a").push(1);
+        assertEquals("[1, a]", stack.toString());
+        assertEquals(Integer.valueOf(1), peek(stack));
+        assertEquals("a", peek(pop(stack)));
+        assertEquals(0, pop(pop(stack)).size());
+    }
+
+    @Test
+    public void testApplyDupSwapFold() {
+        TrieHStack<Result<String, Result<Integer, Bottom>>> stack = create().push(1).push("a");
+        assertEquals("[A, 1]", TrieHStack.apply(stack, String::toUpperCase).toString());
+        assertEquals("[a, a, 1]", TrieHStack.dup(stack).toString());
+        assertEquals("[1, a]", swap(stack).toString());
+        assertEquals("[a1]", fold(stack, (s, i) -> s + i).toString());
+        // none of the above changed the original
+        assertEquals("[a, 1]", stack.toString());
+    }
+
+    @Test
+    public void testToStringWithEmptyString() {
+        assertEquals("[, x]", TrieHStack.from(HStack.create().push("x").push("")).toString());
+        assertEquals("[, x]", create().push("x").push("").toString());
+    }
+
+    @Test
+    public void testSwapAcrossTail() {
+        TrieHStack stack = deep(TrieHStack.WIDTH + 1);
+        TrieHStack swapped = swap(stack);
+        assertEquals(TrieHStack.WIDTH - 1, swapped.get(0));
+        assertEquals(TrieHStack.WIDTH, swapped.get(1));
+        assertEquals(stack, swap(swapped));
+    }
+
+    @Test
+    public void testDeepPushPop() {
+        // deep enough for the trie to grow to three levels and shrink back
+        int depth = TrieHStack.WIDTH * TrieHStack.WIDTH * 2 + 5;
+        TrieHStack stack = deep(depth);
+        HStack linked = stack.toHStack();
+        assertEquals(depth, stack.size());
+        assertEquals(linked.hashCode(), stack.hashCode());
+        assertEquals(stack, TrieHStack.from(linked));
+        for (int i = 0; i < depth; i += 97) {
+            assertEquals(depth - 1 - i, stack.get(i));
+        }
+        for (int i = depth; i > 0; i--) {
+            assertEquals(i - 1, peek(stack));
+            stack = pop(stack);
+        }
+        assertSame(create(), stack);
+    }
+
+    @Test
+    public void testSet() {
+        int depth = TrieHStack.WIDTH * TrieHStack.WIDTH + 10;
+        TrieHStack stack = deep(depth);
+        TrieHStack updated = stack;
+        for (int n = 0; n < depth; n += 13) {
+            updated = updated.set(n, "x" + n);
+        }
+        for (int n = 0; n < depth; n++) {
+            assertEquals(n % 13 == 0 ? "x" + n : Integer.valueOf(depth - 1 - n), updated.get(n));
+            // the original is untouched
+            assertEquals(depth - 1 - n, stack.get(n));
+        }
+        assertEquals(updated.toHStack().hashCode(), updated.hashCode());
+        try {
+            stack.set(depth, "x");
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+        }
+    }
+
+    @Test
+    public void testConversion() {
+        Result<String, Result<Integer, Bottom>> linked = HStack.create().push(1).push("a");
+        TrieHStack<Result<String, Result<Integer, Bottom>>> trie = TrieHStack.from(linked);
+        assertEquals(create().push(1).push("a"), trie);
+        assertEquals(linked.hashCode(), trie.hashCode());
+        assertEquals(linked, trie.toHStack());
+        assertEquals(linked, trie.push(2.0).toHStack().pop());
+        assertSame(HStack.create(), TrieHStack.from(HStack.create()).toHStack());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnboxedNotSupported() {
+        TrieHStack.from(HStack.create().pushInt(1));
+    }
+
+    @Test
+    public void testFolds() {
+        TrieHStack<Result<String, Result<String, Result<String, Bottom>>>> stack = create().push("c").push("b").push("a");
+        assertEquals("abc", stack.foldL("", String::valueOf, String::concat));
+        assertEquals("cba", stack.foldR("", String::valueOf, String::concat));
+        assertEquals("", create().foldL("", String::valueOf, String::concat));
+        TrieHStack d = deep(100);
+        assertEquals(d.toHStack().toString(), d.toString());
+        assertEquals(Integer.valueOf(99), d.foldL(null, v -> v, (a, b) -> a == null ? b : a));
+        assertEquals(Integer.valueOf(0), d.foldR(null, v -> v, (a, b) -> a == null ? b : a));
+    }
+}